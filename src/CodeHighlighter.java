@@ -0,0 +1,289 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import customlang.TokenType;
+import customlang.Tokenizer;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.util.Arrays;
+import javax.swing.JComponent;
+import javax.swing.JTextArea;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainView;
+import javax.swing.text.Segment;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+
+/**
+ * Text area UI that colors customlang source with {@link Tokenizer}
+ * itself, one line at a time.
+ * <p>
+ * The only state carried from one line to the next is whether it starts
+ * inside a string literal or right after an OR (which may merge with an
+ * ELSE on the next line). That state is stored per line; an edit re-lexes
+ * the edited lines and then keeps going only while the state at the start
+ * of the next line changes, so typing costs a line or two however long the
+ * file is. Painting lexes just the lines being painted.
+ */
+public class CodeHighlighter extends BasicTextAreaUI {
+    // State at the start of a line
+    private static final byte NORMAL = 0;
+    private static final byte IN_STRING = 1;
+    private static final byte AFTER_OR = 2;
+
+    // Token colors; identifiers and anything else use the text area's foreground
+    private static final Color KEYWORD = new Color(0, 70, 140);
+    private static final Color STRING = new Color(0, 115, 40);
+    private static final Color NUMBER = new Color(175, 65, 0);
+    private static final Color OPERATOR = new Color(125, 0, 115);
+
+    private final LineStates states = new LineStates();
+    private JTextComponent editor;
+    private Document document;
+
+    public static void install(JTextArea area) {
+        area.setUI(new CodeHighlighter());
+    }
+
+    @Override
+    public void installUI(JComponent c) {
+        super.installUI(c);
+        editor = (JTextComponent) c;
+        attach(editor.getDocument());
+    }
+
+    @Override
+    public void uninstallUI(JComponent c) {
+        attach(null);
+        super.uninstallUI(c);
+    }
+
+    @Override
+    protected void propertyChange(PropertyChangeEvent evt) {
+        super.propertyChange(evt);
+        if ("document".equals(evt.getPropertyName())) {
+            attach(editor.getDocument());
+        }
+    }
+
+    private void attach(Document doc) {
+        if (document != null) document.removeDocumentListener(states);
+        document = doc;
+        if (doc != null) {
+            doc.addDocumentListener(states);
+            states.reset();
+        }
+    }
+
+    @Override
+    public View create(Element elem) {
+        return new HighlightedView(elem);
+    }
+
+    // ----------------------
+    // Lexing one line
+    // ----------------------
+
+    /**
+     * Lexes one line starting in {@code state}, recording each token's color
+     * (or null) per char in {@code colors} when it is non-null. Returns the
+     * state at the start of the next line.
+     */
+    private static byte lexLine(Segment line, byte state, Color[] colors) {
+        int skip = 0;
+        if (state == AFTER_OR) {
+            // Mirror the tokenizer: OR, any whitespace, then ELSE is one OR ELSE token
+            while (skip < line.count && Character.isWhitespace(line.array[line.offset + skip])) skip++;
+            if (skip == line.count) return AFTER_OR;
+            if (startsWith(line, skip, "ELSE")) {
+                paint(colors, skip, skip + 4, KEYWORD);
+                skip += 4;
+            }
+        }
+
+        Tokenizer lexer = new Tokenizer(line.array, line.offset + skip, line.count - skip);
+        if (state == IN_STRING) {
+            lexer.resumeString();
+            paint(colors, skip + lexer.tokenStart(), skip + lexer.tokenEnd(), STRING);
+            if (!lexer.isStringClosed()) return IN_STRING;
+        }
+
+        TokenType kind;
+        TokenType last = null;
+        while ((kind = lexer.nextToken()) != TokenType.EOF) {
+            paint(colors, skip + lexer.tokenStart(), skip + lexer.tokenEnd(), colorOf(kind));
+            if (kind == TokenType.STRING && !lexer.isStringClosed()) return IN_STRING;
+            last = kind;
+        }
+        return last == TokenType.OR ? AFTER_OR : NORMAL;
+    }
+
+    private static Color colorOf(TokenType kind) {
+        switch (kind) {
+            case STRING: return STRING;
+            case NUMBER: return NUMBER;
+            case IDENTIFIER: return null;
+            default: return kind.isWord() ? KEYWORD : OPERATOR;
+        }
+    }
+
+    private static boolean startsWith(Segment line, int at, String word) {
+        if (line.count - at < word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (line.array[line.offset + at + i] != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static void paint(Color[] colors, int from, int to, Color color) {
+        if (colors != null) Arrays.fill(colors, from, to, color);
+    }
+
+    // ----------------------
+    // Per-line start states
+    // ----------------------
+    private final class LineStates implements DocumentListener {
+        private byte[] starts = new byte[1024]; // state at the start of each line
+        private final Segment text = new Segment();
+
+        byte stateAt(int line) {
+            return line < starts.length ? starts[line] : NORMAL;
+        }
+
+        void reset() {
+            int lines = document.getDefaultRootElement().getElementCount();
+            starts = new byte[Math.max(1024, lines + 1)];
+            relex(0, lines - 1);
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            edited(e, document.getDefaultRootElement().getElementIndex(e.getOffset() + e.getLength()));
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            edited(e, document.getDefaultRootElement().getElementIndex(e.getOffset()));
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+
+        private void edited(DocumentEvent e, int lastEdited) {
+            Element root = document.getDefaultRootElement();
+            DocumentEvent.ElementChange change = e.getChange(root);
+            if (change != null) {
+                // Lines were split or joined: shift the states after them
+                int index = change.getIndex();
+                int removed = change.getChildrenRemoved().length;
+                int added = change.getChildrenAdded().length;
+                int oldCount = root.getElementCount() - added + removed;
+                if (root.getElementCount() + 1 > starts.length) {
+                    starts = Arrays.copyOf(starts, Math.max(starts.length * 2, root.getElementCount() + 1));
+                }
+                int tail = oldCount + 1 - (index + removed);
+                if (tail > 0) {
+                    System.arraycopy(starts, index + removed, starts, index + added, tail);
+                }
+            }
+            int first = root.getElementIndex(e.getOffset());
+            int last = relex(first, lastEdited);
+            repaintLines(lastEdited + 1, last);
+        }
+
+        /**
+         * Re-lexes lines from {@code first}: always up to {@code lastEdited},
+         * then on while the next line's start state changes. Returns the last
+         * line whose start state changed.
+         */
+        private int relex(int first, int lastEdited) {
+            Element root = document.getDefaultRootElement();
+            int count = root.getElementCount();
+            int line = first;
+            for (; line < count; line++) {
+                Element element = root.getElement(line);
+                try {
+                    int start = element.getStartOffset();
+                    int end = Math.min(element.getEndOffset() - 1, document.getLength());
+                    document.getText(start, end - start, text);
+                } catch (BadLocationException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                byte next = lexLine(text, starts[line], null);
+                if (line + 1 < starts.length && starts[line + 1] == next && line >= lastEdited) {
+                    break;
+                }
+                if (line + 1 < starts.length) starts[line + 1] = next;
+            }
+            return Math.min(line, count - 1);
+        }
+
+        private void repaintLines(int first, int last) {
+            if (last < first || editor == null) return;
+            try {
+                Element root = document.getDefaultRootElement();
+                Rectangle top = editor.modelToView(root.getElement(first).getStartOffset());
+                Rectangle bottom = editor.modelToView(root.getElement(last).getStartOffset());
+                if (top != null && bottom != null) {
+                    editor.repaint(0, top.y, editor.getWidth(), bottom.y + bottom.height - top.y);
+                }
+            } catch (BadLocationException ex) {
+                editor.repaint();
+            }
+        }
+    }
+
+    // ----------------------
+    // View
+    // ----------------------
+    private final class HighlightedView extends PlainView {
+        private final Segment line = new Segment();
+        private final Segment run = new Segment();
+        private Color[] colors = new Color[256];
+
+        HighlightedView(Element elem) {
+            super(elem);
+        }
+
+        @Override
+        protected int drawUnselectedText(Graphics g, int x, int y, int p0, int p1) throws BadLocationException {
+            Document doc = getDocument();
+            Element root = doc.getDefaultRootElement();
+            int index = root.getElementIndex(p0);
+            Element element = root.getElement(index);
+            int lineStart = element.getStartOffset();
+            int lineEnd = Math.min(element.getEndOffset() - 1, doc.getLength());
+
+            doc.getText(lineStart, lineEnd - lineStart, line);
+            if (colors.length < line.count) colors = new Color[Math.max(line.count, colors.length * 2)];
+            Arrays.fill(colors, 0, line.count, null);
+            lexLine(line, states.stateAt(index), colors);
+
+            Color plain = getContainer().isEnabled() ? getContainer().getForeground() : getContainer().getBackground().darker();
+            int at = p0;
+            while (at < p1) {
+                int from = at - lineStart;
+                Color color = from < line.count ? colors[from] : null;
+                int end = at + 1;
+                while (end < p1 && end - lineStart < line.count && colors[end - lineStart] == color) end++;
+                g.setColor(color == null ? plain : color);
+                doc.getText(at, end - at, run);
+                x = Utilities.drawTabbedText(run, x, y, g, this, at);
+                at = end;
+            }
+            return x;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Lines of program output. The newest {@code capacity} lines are kept in a
+ * ring buffer; older ones are spilled to a temp file, so memory stays
+ * bounded however much a program prints. Spilled lines can still be read
+ * (for scrolling back and searching): the file is indexed every
+ * {@link #INDEX_EVERY} lines, and recently read blocks are cached.
+ * <p>
+ * Used from the EDT only.
+ */
+public class ConsoleModel {
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final int INDEX_EVERY = 64;
+    private static final int CACHED_BLOCKS = 16;
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    // In-memory lines, oldest at ringStart
+    private final String[] ring;
+    private int ringStart = 0;
+    private int ringSize = 0;
+    private final StringBuilder partial = new StringBuilder(); // last line, not yet ended by '\n'
+    private int longestLine = 0;
+
+    // Spilled lines: [0, spilled) are on disk
+    private int spilled = 0;
+    private Path spillFile;
+    private FileChannel spill;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER);
+    private long spillSize = 0; // bytes written, including those still in writeBuffer
+    private long[] index = new long[64]; // byte offset of line k * INDEX_EVERY
+
+    private final Map<Integer, String[]> blocks = new LinkedHashMap<Integer, String[]>(CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    private final List<ChangeListener> listeners = new ArrayList<>();
+
+    public ConsoleModel(int capacity) {
+        this.ring = new String[capacity];
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    private void fireChanged() {
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listeners) {
+            listener.stateChanged(event);
+        }
+    }
+
+    // ----------------------
+    // Reading
+    // ----------------------
+    public int getLineCount() {
+        return spilled + ringSize + (partial.length() > 0 ? 1 : 0);
+    }
+
+    /** Length in chars of the longest line so far. */
+    public int getLongestLine() {
+        return longestLine;
+    }
+
+    public String getLine(int line) {
+        if (line < spilled) {
+            return readBlock(line / INDEX_EVERY)[line % INDEX_EVERY];
+        }
+        int inRing = line - spilled;
+        if (inRing < ringSize) {
+            return ring[(ringStart + inRing) % ring.length];
+        }
+        return partial.toString();
+    }
+
+    /**
+     * First line at or after {@code from} (wrapping around) that contains
+     * {@code needle}, or -1.
+     */
+    public int find(String needle, int from) {
+        int count = getLineCount();
+        for (int i = 0; i < count; i++) {
+            int line = (from + i) % count;
+            if (getLine(line).contains(needle)) return line;
+        }
+        return -1;
+    }
+
+    // ----------------------
+    // Writing
+    // ----------------------
+
+    /** Adds text, splitting it into lines at '\n'. */
+    public void append(CharSequence text) {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                partial.append(text, start, i);
+                push(partial.toString());
+                partial.setLength(0);
+                start = i + 1;
+            }
+        }
+        partial.append(text, start, text.length());
+        longestLine = Math.max(longestLine, partial.length());
+        fireChanged();
+    }
+
+    public void clear() {
+        Arrays.fill(ring, null);
+        ringStart = ringSize = 0;
+        partial.setLength(0);
+        longestLine = 0;
+        spilled = 0;
+        spillSize = 0;
+        writeBuffer.clear();
+        blocks.clear();
+        if (spill != null) {
+            try {
+                spill.truncate(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        fireChanged();
+    }
+
+    /** Deletes the spill file. */
+    public void close() {
+        if (spill == null) return;
+        try {
+            spill.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            spill = null;
+        }
+    }
+
+    private void push(String line) {
+        longestLine = Math.max(longestLine, line.length());
+        if (ringSize == ring.length) {
+            spillLine(ring[ringStart]);
+            ring[ringStart] = null;
+            ringStart = (ringStart + 1) % ring.length;
+            ringSize--;
+        }
+        ring[(ringStart + ringSize) % ring.length] = line;
+        ringSize++;
+    }
+
+    // ----------------------
+    // Spill file
+    // ----------------------
+    private void spillLine(String line) {
+        try {
+            if (spill == null) {
+                spillFile = Files.createTempFile("customlang-output", ".txt");
+                spillFile.toFile().deleteOnExit();
+                spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            if (spilled % INDEX_EVERY == 0) {
+                int block = spilled / INDEX_EVERY;
+                if (block == index.length) index = Arrays.copyOf(index, block * 2);
+                index[block] = spillSize;
+            }
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > writeBuffer.remaining()) flushSpill();
+            if (bytes.length > writeBuffer.capacity()) {
+                spill.write(ByteBuffer.wrap(bytes), spillSize);
+            } else {
+                writeBuffer.put(bytes);
+            }
+            spillSize += bytes.length;
+            spilled++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushSpill() throws IOException {
+        writeBuffer.flip();
+        long position = spillSize - writeBuffer.remaining();
+        while (writeBuffer.hasRemaining()) {
+            position += spill.write(writeBuffer, position);
+        }
+        writeBuffer.clear();
+    }
+
+    private String[] readBlock(int block) {
+        String[] lines = blocks.get(block);
+        if (lines != null) return lines;
+        try {
+            if (writeBuffer.position() > 0) flushSpill();
+            long start = index[block];
+            long end = (block + 1) * INDEX_EVERY < spilled ? index[block + 1] : spillSize;
+            ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+            while (bytes.hasRemaining()) {
+                if (spill.read(bytes, start + bytes.position()) < 0) break;
+            }
+            String text = new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8);
+            lines = text.split("\n", -1);
+            if ((block + 1) * INDEX_EVERY <= spilled) {
+                blocks.put(block, lines); // the last block is still growing
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows a {@link ConsoleModel} inside a scroll pane. Only the lines in the
+ * visible viewport are fetched and painted, so the cost of a repaint does
+ * not depend on how much output there is. Lines can be selected with the
+ * mouse and copied with Ctrl+C; {@link #find(String)} jumps to a match.
+ */
+public class ConsoleView extends JComponent implements Scrollable {
+    private static final Color SELECTION = new Color(239, 209, 165);
+
+    private final ConsoleModel model;
+    private int anchor = -1; // selected lines are [min(anchor, lead), max(anchor, lead)]
+    private int lead = -1;
+    private int lastCount = 0;
+
+    public ConsoleView(ConsoleModel model) {
+        this.model = model;
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        setOpaque(true);
+        setFocusable(true);
+        model.addChangeListener(e -> modelChanged());
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                anchor = lead = lineAt(e.getY());
+                repaint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                lead = lineAt(e.getY());
+                scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        registerKeyboardAction(e -> copySelection(), KeyStroke.getKeyStroke("ctrl C"), WHEN_FOCUSED);
+    }
+
+    private int lineHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    private int lineAt(int y) {
+        int count = model.getLineCount();
+        if (count == 0) return -1;
+        return Math.max(0, Math.min(count - 1, y / lineHeight()));
+    }
+
+    private void modelChanged() {
+        int count = model.getLineCount();
+        if (count < lastCount) {
+            anchor = lead = -1;
+        }
+        // Follow the output if the view was already showing the end
+        Rectangle visible = getVisibleRect();
+        boolean atEnd = visible.y + visible.height >= lastCount * lineHeight() - 1;
+        lastCount = count;
+        revalidate();
+        repaint();
+        if (atEnd && count > 0) {
+            // After the pending layout has picked up the new size
+            SwingUtilities.invokeLater(() -> scrollRectToVisible(new Rectangle(0, (count - 1) * lineHeight(), 1, lineHeight())));
+        }
+    }
+
+    // ----------------------
+    // Selection and search
+    // ----------------------
+    private void copySelection() {
+        if (anchor < 0) return;
+        StringBuilder text = new StringBuilder();
+        for (int line = Math.min(anchor, lead); line <= Math.max(anchor, lead); line++) {
+            text.append(model.getLine(line)).append('\n');
+        }
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(text.toString()), null);
+    }
+
+    /** Selects and scrolls to the next line containing {@code needle}; false if there is none. */
+    public boolean find(String needle) {
+        int line = model.find(needle, lead + 1);
+        if (line < 0) return false;
+        anchor = lead = line;
+        scrollRectToVisible(new Rectangle(0, line * lineHeight(), 1, lineHeight()));
+        repaint();
+        return true;
+    }
+
+    // ----------------------
+    // Painting
+    // ----------------------
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics metrics = getFontMetrics(getFont());
+        return new Dimension(model.getLongestLine() * metrics.charWidth('m') + 8,
+                model.getLineCount() * metrics.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        FontMetrics metrics = g.getFontMetrics(getFont());
+        int height = metrics.getHeight();
+        int count = model.getLineCount();
+        int first = clip.y / height;
+        int last = Math.min(count - 1, (clip.y + clip.height) / height);
+        int selectedFrom = Math.min(anchor, lead);
+        int selectedTo = Math.max(anchor, lead);
+
+        g.setFont(getFont());
+        for (int line = first; line <= last; line++) {
+            int top = line * height;
+            if (anchor >= 0 && line >= selectedFrom && line <= selectedTo) {
+                g.setColor(SELECTION);
+                g.fillRect(clip.x, top, clip.width, height);
+            }
+            g.setColor(getForeground());
+            g.drawString(model.getLine(line), 4, top + metrics.getAscent());
+        }
+    }
+
+    // ----------------------
+    // Scrollable
+    // ----------------------
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(200, 5 * lineHeight()); // like a 5-row text area
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? lineHeight() : getFontMetrics(getFont()).charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return Math.max(lineHeight(), visibleRect.height - lineHeight());
+        }
+        return visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import javax.swing.text.Document;
+
+/**
+ * The most recently opened documents, so switching back to a file is
+ * instant. An entry is only used while the file's size and modification
+ * time are the ones it was loaded (or saved) with; a document keeps any
+ * unsaved edits while it is cached. A document with unsaved edits is never
+ * dropped because its file changed on disk: {@link #get(Path)} still
+ * returns it, and {@link #changedOnDisk(Path)} tells the caller to ask
+ * which version to keep.
+ * <p>
+ * Used from the EDT only.
+ */
+public class DocumentCache {
+    private static final class Cached {
+        final Document document;
+        long modified;
+        long size;
+
+        Cached(Document document, long modified, long size) {
+            this.document = document;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    private final Map<Path, Cached> entries;
+    private final Predicate<Document> unsaved;
+    private final Consumer<Document> evicted;
+
+    /**
+     * {@code unsaved} tells whether a document has edits that are not on
+     * disk; {@code evicted} is told about each document that drops out of
+     * the cache.
+     */
+    public DocumentCache(int capacity, Predicate<Document> unsaved, Consumer<Document> evicted) {
+        this.unsaved = unsaved;
+        this.evicted = evicted;
+        this.entries = new LinkedHashMap<Path, Cached>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Cached> eldest) {
+                if (size() <= capacity) return false;
+                evicted.accept(eldest.getValue().document);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The cached document for {@code file}, or null if there is none or the
+     * file has changed and the document has no unsaved edits.
+     */
+    public Document get(Path file) {
+        Cached entry = entries.get(file);
+        if (entry == null) return null;
+        if (!stale(file, entry) || unsaved.test(entry.document)) return entry.document;
+        evicted.accept(entries.remove(file).document);
+        return null;
+    }
+
+    /** Whether {@code file} changed on disk (or went) since its cached document was loaded or saved. */
+    public boolean changedOnDisk(Path file) {
+        Cached entry = entries.get(file);
+        return entry != null && stale(file, entry);
+    }
+
+    /** Keeps the cached document for {@code file} as it is, over the file's new contents. */
+    public void keep(Path file) {
+        Cached entry = entries.get(file);
+        if (entry == null) return;
+        try {
+            entry.modified = Files.getLastModifiedTime(file).toMillis();
+            entry.size = Files.size(file);
+        } catch (IOException e) {
+            // Gone: it stays stale, and the next get asks again
+        }
+    }
+
+    /** Drops the cached document for {@code file}, if there is one. */
+    public void remove(Path file) {
+        Cached entry = entries.remove(file);
+        if (entry != null) evicted.accept(entry.document);
+    }
+
+    private static boolean stale(Path file, Cached entry) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() != entry.modified || Files.size(file) != entry.size;
+        } catch (IOException e) {
+            return true; // deleted or unreadable
+        }
+    }
+
+    /** Caches {@code document} as the current contents of {@code file} (and of no other file). */
+    public void put(Path file, Document document) {
+        entries.values().removeIf(entry -> entry.document == document); // saved under a new name
+        try {
+            entries.put(file, new Cached(document, Files.getLastModifiedTime(file).toMillis(), Files.size(file)));
+        } catch (IOException e) {
+            Cached stale = entries.remove(file);
+            if (stale != null && stale.document != document) evicted.accept(stale.document);
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * Append-only log of the edits made to one file since it was last saved,
+ * so a crash loses at most the last {@link #COMMIT_MILLIS} of typing.
+ * <p>
+ * Edits are recorded from the document's events (which, unlike undoable
+ * edit events, also cover undo and redo) into a memory buffer; a journal
+ * thread writes the buffer as one checksummed frame and syncs it every
+ * {@link #COMMIT_MILLIS}, so typing itself never touches the disk. When
+ * the log outgrows the text it describes it is compacted into a single
+ * snapshot. Opening a file whose journal matches the file on disk replays
+ * the journal onto it.
+ * <p>
+ * File layout: a header (magic, path, size and modification time of the
+ * file the edits apply to), then frames of {@code [length][crc32][records]}.
+ * A torn last frame fails its checksum and is dropped.
+ */
+public class EditJournal implements DocumentListener {
+    public static final int COMMIT_MILLIS = 300;
+
+    private static final int MAGIC = 0x434c4a31; // "CLJ1"
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SNAPSHOT = 3; // replaces the whole text
+    private static final long MIN_COMPACT_BYTES = 256 * 1024;
+
+    private static final ScheduledExecutorService IO = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "customlang-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Set<EditJournal> OPEN = Collections.synchronizedSet(new HashSet<>());
+
+    private final Path file;
+    private final Path journal;
+    private final Document doc;
+
+    // Edits not yet written, guarded by this
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream pending = new DataOutputStream(buffer);
+    private int edits; // edits recorded so far, guarded by this
+
+    // Journal thread only
+    private FileChannel channel; // null until the first edit is written
+    private long baseModified;
+    private long baseSize;
+    private final ScheduledFuture<?> committer;
+
+    private EditJournal(Path file, Document doc, FileChannel channel, long baseModified, long baseSize, int edits) {
+        this.file = file;
+        this.journal = journalFor(file);
+        this.doc = doc;
+        this.channel = channel;
+        this.baseModified = baseModified;
+        this.baseSize = baseSize;
+        this.edits = edits;
+        this.committer = IO.scheduleWithFixedDelay(this::commit, COMMIT_MILLIS, COMMIT_MILLIS, TimeUnit.MILLISECONDS);
+        doc.addDocumentListener(this);
+        OPEN.add(this);
+    }
+
+    /** Where journals are kept: outside the project, so they never show up in it. */
+    public static Path directory() {
+        return Paths.get(System.getProperty("user.home"), ".customlang", "journal");
+    }
+
+    private static Path journalFor(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        String name = absolute.getFileName().toString().replaceAll("[^A-Za-z0-9._-]", "_");
+        return directory().resolve(name + "-" + Integer.toHexString(absolute.toString().hashCode()) + ".jnl");
+    }
+
+    // ----------------------
+    // Opening and recovery
+    // ----------------------
+
+    /**
+     * Starts journaling {@code doc}, which holds the contents of
+     * {@code file} as just loaded. If a journal left behind for the file
+     * still applies to it, its edits are first replayed onto {@code doc};
+     * {@link #getEditCount()} then tells how many there were. Call before
+     * the document is shown. If the journal turns out not to fit the text
+     * it is deleted and an IOException thrown; {@code doc} should then be
+     * reloaded.
+     */
+    public static EditJournal open(Path file, Document doc) throws IOException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long size = Files.size(file);
+        Path journal = journalFor(file);
+        FileChannel channel = null;
+        int replayed = 0;
+        if (Files.exists(journal)) {
+            long validEnd = -1;
+            try (InputStream in = Files.newInputStream(journal)) {
+                DataInputStream data = new DataInputStream(in);
+                Header header = readHeader(data);
+                if (header != null && header.matches(file)) {
+                    long[] result = replay(data, doc, journalHeaderLength(file));
+                    validEnd = result[0];
+                    replayed = (int) result[1];
+                }
+            } catch (BadLocationException e) {
+                // The edits do not fit this text, and doc is now half-replayed
+                Files.deleteIfExists(journal);
+                throw new IOException("Journal does not match " + file, e);
+            }
+            if (validEnd >= 0 && replayed > 0) {
+                channel = FileChannel.open(journal, StandardOpenOption.WRITE);
+                channel.truncate(validEnd);
+                channel.position(validEnd);
+            } else {
+                Files.deleteIfExists(journal);
+            }
+        }
+        return new EditJournal(file, doc, channel, modified, size, replayed);
+    }
+
+    /**
+     * Starts a fresh journal for {@code doc} as the contents of
+     * {@code file}, dropping any old journal there, with the edit count
+     * carried on from {@code edits} (see {@link #saved(int)}).
+     */
+    public static EditJournal attach(Path file, Document doc, int edits) throws IOException {
+        Files.deleteIfExists(journalFor(file));
+        return new EditJournal(file, doc, null, Files.getLastModifiedTime(file).toMillis(), Files.size(file), edits);
+    }
+
+    /** Files that have a journal with unsaved edits still matching them. */
+    public static List<Path> recoverable() {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory())) return files;
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory(), "*.jnl")) {
+            for (Path journal : journals) {
+                try (DataInputStream data = new DataInputStream(Files.newInputStream(journal))) {
+                    Header header = readHeader(data);
+                    if (header != null && journal.equals(journalFor(header.file)) && header.matches(header.file)) {
+                        files.add(header.file);
+                    }
+                } catch (IOException e) {
+                    // Unreadable: not recoverable
+                }
+            }
+        } catch (IOException e) {
+            // No journals
+        }
+        return files;
+    }
+
+    /** The file a journal's edits apply to, as it was when they started. */
+    private static final class Header {
+        final Path file;
+        final long modified;
+        final long size;
+
+        Header(Path file, long modified, long size) {
+            this.file = file;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        /** Whether {@code file} is still exactly the file the journal was written against. */
+        boolean matches(Path file) throws IOException {
+            return this.file.equals(file.toAbsolutePath().normalize()) && Files.isRegularFile(file)
+                    && Files.getLastModifiedTime(file).toMillis() == modified && Files.size(file) == size;
+        }
+    }
+
+    /** Reads a journal header, or returns null if this is not a journal. */
+    private static Header readHeader(DataInputStream data) throws IOException {
+        try {
+            if (data.readInt() != MAGIC) return null;
+            return new Header(Paths.get(data.readUTF()), data.readLong(), data.readLong());
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static int journalHeaderLength(Path file) throws IOException {
+        return header(file, 0, 0).length;
+    }
+
+    private static byte[] header(Path file, long modified, long size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeUTF(file.toAbsolutePath().normalize().toString());
+        out.writeLong(modified);
+        out.writeLong(size);
+        return bytes.toByteArray();
+    }
+
+    /** Applies every intact frame; returns {end of the last intact frame, records applied}. */
+    private static long[] replay(DataInputStream data, Document doc, long position) throws IOException, BadLocationException {
+        long records = 0;
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] frame;
+            try {
+                int length = data.readInt();
+                int checksum = data.readInt();
+                if (length < 0) break;
+                frame = new byte[length];
+                data.readFully(frame);
+                crc.reset();
+                crc.update(frame, 0, frame.length);
+                if ((int) crc.getValue() != checksum) break;
+            } catch (EOFException e) {
+                break; // torn tail
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                int offset = in.readInt();
+                int length = in.readInt();
+                if (op == REMOVE) {
+                    doc.remove(offset, length);
+                } else {
+                    String text = readChars(in, length);
+                    if (op == SNAPSHOT) doc.remove(0, doc.getLength());
+                    doc.insertString(op == SNAPSHOT ? 0 : offset, text, null);
+                }
+                records++;
+            }
+            position += 8 + frame.length;
+        }
+        return new long[] { position, records };
+    }
+
+    private static String readChars(DataInputStream in, int length) throws IOException {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    // ----------------------
+    // Recording (inside the document's write lock)
+    // ----------------------
+
+    /** The file this journal's edits apply to. */
+    public Path getFile() {
+        return file;
+    }
+
+    /** Edits recorded so far, including replayed ones. */
+    public synchronized int getEditCount() {
+        return edits;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        String text;
+        try {
+            text = doc.getText(e.getOffset(), e.getLength());
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        record(INSERT, e.getOffset(), text.length(), text);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        record(REMOVE, e.getOffset(), e.getLength(), null);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    private synchronized void record(byte op, int offset, int length, String text) {
+        try {
+            pending.writeByte(op);
+            pending.writeInt(offset);
+            pending.writeInt(length);
+            if (text != null) pending.writeChars(text);
+            edits++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a byte array cannot fail
+        }
+    }
+
+    // ----------------------
+    // Journal thread
+    // ----------------------
+    private void commit() {
+        byte[] frame;
+        synchronized (this) {
+            if (buffer.size() == 0) return;
+            frame = buffer.toByteArray();
+            buffer.reset();
+        }
+        try {
+            if (channel == null) {
+                Files.createDirectories(directory());
+                channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                write(channel, ByteBuffer.wrap(header(file, baseModified, baseSize)));
+            }
+            write(channel, frame(frame));
+            channel.force(false);
+            if (channel.size() > Math.max(MIN_COMPACT_BYTES, 4L * doc.getLength())) {
+                compact();
+            }
+        } catch (IOException e) {
+            // The journal is a safety net; an editor that cannot write it keeps working
+            closeChannel();
+        }
+    }
+
+    /** Replaces the journal with one snapshot of the current text. */
+    private void compact() throws IOException {
+        String[] text = new String[1];
+        doc.render(() -> {
+            // No edit can run while rendering, so the snapshot and the dropped buffer agree
+            try {
+                text[0] = doc.getText(0, doc.getLength());
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+            synchronized (this) {
+                buffer.reset();
+            }
+        });
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream(text[0].length() * 2 + 16);
+        DataOutputStream out = new DataOutputStream(snapshot);
+        out.writeByte(SNAPSHOT);
+        out.writeInt(0);
+        out.writeInt(text[0].length());
+        out.writeChars(text[0]);
+
+        Files.createDirectories(directory());
+        Path temp = journal.resolveSibling(journal.getFileName() + ".tmp");
+        try (FileChannel rewritten = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(rewritten, ByteBuffer.wrap(header(file, baseModified, baseSize)));
+            write(rewritten, frame(snapshot.toByteArray()));
+            rewritten.force(false);
+        }
+        closeChannel();
+        try {
+            Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(journal, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    private static ByteBuffer frame(byte[] records) {
+        CRC32 crc = new CRC32();
+        crc.update(records, 0, records.length);
+        ByteBuffer frame = ByteBuffer.allocate(8 + records.length);
+        frame.putInt(records.length).putInt((int) crc.getValue()).put(records);
+        frame.flip();
+        return frame;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to lose
+        }
+        channel = null;
+    }
+
+    // ----------------------
+    // Saving and closing
+    // ----------------------
+
+    /**
+     * The file was saved with the text as it was after {@code savedEdits}
+     * edits. The journal restarts against the new file: empty if nothing
+     * was typed since, else as a snapshot of the current text.
+     */
+    public void saved(int savedEdits) {
+        IO.execute(() -> {
+            try {
+                baseModified = Files.getLastModifiedTime(file).toMillis();
+                baseSize = Files.size(file);
+                boolean clean;
+                synchronized (this) {
+                    clean = edits == savedEdits;
+                    if (clean) buffer.reset();
+                }
+                if (clean) {
+                    closeChannel();
+                    Files.deleteIfExists(journal);
+                } else {
+                    compact();
+                }
+            } catch (IOException e) {
+                closeChannel();
+            }
+        });
+    }
+
+    /**
+     * The file changed on disk, but the document keeps its own text: the
+     * journal restarts against the new file as a snapshot of that text.
+     */
+    public void rebase() {
+        saved(-1); // matches no edit count, so the text is always snapshotted
+    }
+
+    /** Stops journaling; the journal file is kept if {@code keep} is true, else deleted. */
+    public void close(boolean keep) {
+        doc.removeDocumentListener(this);
+        committer.cancel(false);
+        OPEN.remove(this);
+        IO.execute(() -> {
+            if (keep) commit();
+            closeChannel();
+            if (!keep) {
+                try {
+                    Files.deleteIfExists(journal);
+                } catch (IOException e) {
+                    // Left for the next start to find stale
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes out everything still buffered, waiting up to {@code millis}.
+     * Journals keep working afterwards.
+     */
+    public static void flushAll(long millis) throws InterruptedException {
+        synchronized (OPEN) {
+            for (EditJournal journal : OPEN) {
+                IO.execute(journal::commit);
+            }
+        }
+        // The thread runs tasks in order, so once this one has run the commits above have too
+        Future<?> drained = IO.submit(() -> { });
+        try {
+            drained.get(millis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // Out of time: exiting with what is written
+        }
+    }
+}
@@ -3,18 +3,27 @@
  *
  * @author Pearly Jaleco
  */
-import java.util.List;
-import java.util.Map;
-import customlang.Interpreter;
+import customlang.AppendableIO;
+import customlang.AstPrinter;
+import customlang.CompileCache;
+import customlang.Engine;
+import customlang.Optimizer;
 import customlang.Parser;
+import customlang.Program;
 import customlang.Tokenizer;
 import javax.swing.*;
 import javax.swing.tree.*;
-import javax.swing.undo.UndoManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import java.awt.Color;
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 
 
@@ -22,7 +31,21 @@ public class MainFrame extends JFrame {
     
     private File projectDirectory = new File("project");
     private File currentFile = null;
-    private UndoManager undoManager = new UndoManager();
+    private final UndoHistory undoManager = new UndoHistory();
+    private Engine engine = Engine.CLOSURE;
+    private boolean optimize = true;
+    private SwingWorker<String, Void> running; // the current run, null when idle
+    private final ConsoleModel console = new ConsoleModel(ConsoleModel.DEFAULT_CAPACITY);
+    private ConsoleView consoleView;
+    private FileLoad loading; // the file being opened, null when none
+    private final DocumentCache documents = new DocumentCache(8, MainFrame::isDirty, MainFrame::closeJournal);
+    private final SaveService saves = new SaveService(SOURCE_CHARSET);
+    private ProjectTreeModel projectTree;
+    private SyntaxChecker syntaxChecker;
+    private final CompileCache compiled = new CompileCache(CompileCache.DEFAULT_BUDGET); // shared by every file
+
+    // Source files are read and written in one declared charset, not the platform default
+    static final Charset SOURCE_CHARSET = StandardCharsets.UTF_8;
     
     //CONSTRUCTOR 
     public MainFrame() {
@@ -36,10 +59,24 @@ public class MainFrame extends JFrame {
     }
     
 
-    private void setupComponents() {
-        // Setup undo manager
-        Document doc = CodeEditorTextArea.getDocument();
+    private void useDocument(Document doc) {
+        CodeEditorTextArea.getDocument().removeUndoableEditListener(undoManager);
+        CodeEditorTextArea.getDocument().removeDocumentListener(editCounter);
+        CodeEditorTextArea.setDocument(doc);
         doc.addUndoableEditListener(undoManager);
+        doc.addDocumentListener(editCounter);
+        undoManager.discardAllEdits();
+    }
+
+    private void setupComponents() {
+        // Syntax highlighting driven by the customlang lexer
+        CodeHighlighter.install(CodeEditorTextArea);
+
+        // Errors are underlined as you type, checked in the background after a short pause
+        syntaxChecker = new SyntaxChecker(CodeEditorTextArea);
+
+        // Piece-table document, so large files open without copying them onto the heap
+        useDocument(new PieceTableDocument());
         
         // Setup tree renderer
         DefaultTreeCellRenderer renderer = (DefaultTreeCellRenderer) jTree1.getCellRenderer();
@@ -50,31 +87,95 @@ public class MainFrame extends JFrame {
         if (!projectDirectory.exists()) {
             projectDirectory.mkdir();
         }
-         // Load files into the tree at startup
-        refreshTree();
+         // Project tree: directories are listed when expanded and kept current by a file watcher
+        try {
+            projectTree = new ProjectTreeModel(projectDirectory.toPath());
+            jTree1.setModel(projectTree);
+        } catch (IOException ex) {
+            // No tree (nor watcher) then; everything else works without it
+            ex.printStackTrace();
+            console.append("Could not show the project directory: " + ex.getMessage() + "\n");
+        }
         jTree1.setRootVisible(false);
+        jTree1.setShowsRootHandles(true);
+
+        // Journals left by a crash are replayed when their file is opened
+        List<Path> recovered = EditJournal.recoverable();
+        if (!recovered.isEmpty()) {
+            StringBuilder names = new StringBuilder();
+            for (Path path : recovered) {
+                names.append(names.length() > 0 ? ", " : "").append(path.getFileName());
+            }
+            console.append("Unsaved changes were recovered for " + names + "; open a file to continue editing it.\n");
+        }
   
 
     
     // DETECTS WHEN NODE IS SELECTED 
         // Detects when user clicks on a file in the tree node 
      jTree1.addTreeSelectionListener(e -> {
-    DefaultMutableTreeNode node = (DefaultMutableTreeNode) jTree1.getLastSelectedPathComponent();
-    if (node == null || node.getParent() == null) return; // Ignore root
-    
-    File file = new File(projectDirectory, node.toString());
-    if (!file.isFile()) return;
+    Object node = jTree1.getLastSelectedPathComponent();
+    if (!(node instanceof ProjectTreeModel.FileNode)) return;
+    ProjectTreeModel.FileNode fileNode = (ProjectTreeModel.FileNode) node;
+    if (fileNode.isDirectory()) return;
     
-    try {
-        currentFile = file;
-        String content = new String(Files.readAllBytes(file.toPath()));
-        CodeEditorTextArea.setText(content);
-        CodeEditorPanel.setTitleAt(0, file.getName());
-    } catch (Exception ex) {
-        ex.printStackTrace();
-    }
+    openFile(fileNode.getPath().toFile());
 });
      
+     // OUTPUT CONSOLE: bounded, spills old lines to disk, paints only what is visible
+    consoleView = new ConsoleView(console);
+    consoleView.setBackground(OutputTextArea.getBackground());
+    consoleView.setForeground(OutputTextArea.getForeground());
+    jScrollPane2.setViewportView(consoleView);
+    consoleView.registerKeyboardAction(e -> findInOutput(), KeyStroke.getKeyStroke("ctrl F"), JComponent.WHEN_FOCUSED);
+    addWindowListener(new java.awt.event.WindowAdapter() {
+        @Override
+        public void windowClosing(java.awt.event.WindowEvent e) {
+            // EXIT_ON_CLOSE exits right after this; let queued saves and journal writes reach the disk first
+            try {
+                EditJournal.flushAll(2000);
+                saves.finish(5000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void windowClosed(java.awt.event.WindowEvent e) {
+            console.close();
+            syntaxChecker.close();
+            if (projectTree != null) projectTree.close();
+        }
+    });
+     
+     // ENGINE PICKER (Settings > Engine) so backends can be compared run by run
+    JMenu engineMenu = new JMenu("Engine");
+    engineMenu.setFont(TextColorMenu.getFont());
+    engineMenu.setForeground(TextColorMenu.getForeground());
+    ButtonGroup engineGroup = new ButtonGroup();
+    for (Engine choice : Engine.values()) {
+        JRadioButtonMenuItem item = new JRadioButtonMenuItem(choice.toString(), choice == engine);
+        item.setFont(TextColorMenu.getFont());
+        item.setForeground(TextColorMenu.getForeground());
+        item.addActionListener(e -> engine = choice);
+        engineGroup.add(item);
+        engineMenu.add(item);
+    }
+    PopMenuSETTINGS.add(engineMenu);
+
+    // OPTIMIZER (Settings > Optimize) and a view of the tree it produces
+    JCheckBoxMenuItem optimizeItem = new JCheckBoxMenuItem("Optimize", optimize);
+    optimizeItem.setFont(TextColorMenu.getFont());
+    optimizeItem.setForeground(TextColorMenu.getForeground());
+    optimizeItem.addActionListener(e -> optimize = optimizeItem.isSelected());
+    PopMenuSETTINGS.add(optimizeItem);
+
+    JMenuItem treeItem = new JMenuItem("Show Optimized Tree");
+    treeItem.setFont(TextColorMenu.getFont());
+    treeItem.setForeground(TextColorMenu.getForeground());
+    treeItem.addActionListener(e -> showOptimizedTree());
+    PopMenuSETTINGS.add(treeItem);
+     
      // SHORTCUTS 
     JRootPane root = getRootPane();
     root.registerKeyboardAction(e -> NEWFileMenuActionPerformed(e), KeyStroke.getKeyStroke("ctrl N"), JComponent.WHEN_IN_FOCUSED_WINDOW);
@@ -85,30 +186,307 @@ public class MainFrame extends JFrame {
     root.registerKeyboardAction(e -> PASTEMenuActionPerformed(e), KeyStroke.getKeyStroke("ctrl V"), JComponent.WHEN_IN_FOCUSED_WINDOW);
     }
     
-    // Gets the File object for the currently selected tree item
-    // onstructs full file path from project directory + filename
-    private File getSelectedTreeFile() {
-    DefaultMutableTreeNode node = (DefaultMutableTreeNode) jTree1.getLastSelectedPathComponent();
-    if (node == null || node.getParent() == null) return null; // Ignore root
-    return new File(projectDirectory, node.toString());
-}
-    
-    // REFRESH JTREE TO DISPLAY FILE/FOLDER
-    private void refreshTree() {
-    DefaultMutableTreeNode root = new DefaultMutableTreeNode(projectDirectory.getName());
-    
-    
-    File[] files = projectDirectory.listFiles();
-    if (files != null) {
-        for (File f : files) {
-            if (f.isFile()) { // Only files
-                root.add(new DefaultMutableTreeNode(f.getName()));
+    // ----------------------
+    // Opening files
+    // ----------------------
+    private void openFile(File file) {
+        if (loading != null) {
+            loading.cancel(true); // the user moved on to another file
+            loading = null;
+        }
+        Document cached = documents.get(file.toPath());
+        if (cached != null && documents.changedOnDisk(file.toPath()) && !keepEdits(file, cached)) {
+            cached = null;
+        }
+        if (cached != null) {
+            showFile(file, cached);
+            return;
+        }
+        loading = new FileLoad(file);
+        loading.execute();
+    }
+
+    /**
+     * Asks whether to keep the unsaved edits in {@code doc} over its file,
+     * which changed on disk; if not, they are dropped and the file is read again.
+     */
+    private boolean keepEdits(File file, Document doc) {
+        int choice = JOptionPane.showConfirmDialog(this,
+                file.getName() + " changed on disk, but has unsaved edits here.\n"
+                + "Keep your edits? (No reloads the file and discards them.)",
+                "File changed", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        EditJournal journal = (EditJournal) doc.getProperty(EditJournal.class);
+        if (choice == JOptionPane.YES_OPTION) {
+            documents.keep(file.toPath());
+            if (journal != null) journal.rebase();
+            return true;
+        }
+        if (journal != null) {
+            journal.close(false);
+            doc.putProperty(EditJournal.class, null);
+        }
+        documents.remove(file.toPath());
+        return false;
+    }
+
+    private void showFile(File file, Document doc) {
+        currentFile = file;
+        useDocument(doc);
+        updateTitle();
+    }
+
+    // ----------------------
+    // Saving
+    // ----------------------
+
+    // Edit counts kept on each document, so a cached document remembers whether it is saved
+    private static final String EDITS = "customlang.edits";
+    private static final String SAVED_EDITS = "customlang.savedEdits";
+
+    private final DocumentListener editCounter = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            edited(e.getDocument());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            edited(e.getDocument());
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+
+        private void edited(Document doc) {
+            boolean wasSaved = !isDirty(doc);
+            doc.putProperty(EDITS, editCount(doc, EDITS) + 1);
+            if (wasSaved) updateTitle();
+        }
+    };
+
+    private static int editCount(Document doc, String key) {
+        Object count = doc.getProperty(key);
+        return count instanceof Integer ? (Integer) count : 0;
+    }
+
+    private static boolean isDirty(Document doc) {
+        return editCount(doc, EDITS) != editCount(doc, SAVED_EDITS);
+    }
+
+    /** The file name in the editor tab, with a * while there are unsaved edits. */
+    private void updateTitle() {
+        if (currentFile == null) return;
+        boolean dirty = isDirty(CodeEditorTextArea.getDocument());
+        CodeEditorPanel.setTitleAt(0, currentFile.getName() + (dirty ? " *" : ""));
+    }
+
+    /** A fresh journal for {@code doc}, or null if journals cannot be written. */
+    private static EditJournal attachJournal(Path file, Document doc, int edits) {
+        try {
+            return EditJournal.attach(file, doc, edits);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /** Stops journaling a document that is no longer open; its unsaved edits stay journaled. */
+    private static void closeJournal(Document doc) {
+        EditJournal journal = (EditJournal) doc.getProperty(EditJournal.class);
+        if (journal != null) {
+            journal.close(true);
+            doc.putProperty(EditJournal.class, null);
+        }
+    }
+
+    /** Snapshots the editor text and hands it to the save thread. */
+    private void startSave(File file, File replaced) {
+        Document doc = CodeEditorTextArea.getDocument();
+        String text;
+        try {
+            text = doc.getText(0, doc.getLength());
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        int edits = editCount(doc, EDITS);
+        EditJournal journal = (EditJournal) doc.getProperty(EditJournal.class);
+        int journaled = journal == null ? 0 : journal.getEditCount();
+        saves.save(file.toPath(), text, replaced == null ? null : replaced.toPath(), (path, error) -> {
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, "Could not save " + file.getName() + ": " + error.getMessage());
+                return;
+            }
+            doc.putProperty(SAVED_EDITS, edits);
+            if (journal != null && journal.getFile().equals(path)) {
+                journal.saved(journaled);
+            } else {
+                // Saved under a new name: journal against that file from now on
+                if (journal != null) journal.close(false);
+                EditJournal moved = attachJournal(path, doc, journal == null ? journaled : journal.getEditCount());
+                doc.putProperty(EditJournal.class, moved);
+                if (moved != null) moved.saved(journaled);
+            }
+            documents.put(path, doc);
+            if (CodeEditorTextArea.getDocument() == doc) currentFile = file; // Save As switches once written
+            treeChanged(path);
+            if (replaced != null) treeChanged(replaced.toPath());
+            updateTitle();
+        });
+        updateTitle();
+    }
+
+    /** Updates the project tree for a file the IDE just changed, if there is a tree. */
+    private void treeChanged(Path path) {
+        if (projectTree != null) projectTree.changed(path);
+    }
+
+    /** Decodes a file off the EDT, showing progress in the editor tab. */
+    private class FileLoad extends SwingWorker<Document, Integer> {
+        private final File file;
+
+        FileLoad(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected Document doInBackground() throws IOException {
+            Path path = file.toPath();
+            Document doc = PieceTableDocument.open(path, SOURCE_CHARSET, this::publish);
+            EditJournal journal;
+            try {
+                // Unsaved edits from a previous session (or an evicted document) come back here
+                journal = EditJournal.open(path, doc);
+            } catch (IOException ex) {
+                doc = PieceTableDocument.open(path, SOURCE_CHARSET);
+                journal = attachJournal(path, doc, 0);
+            }
+            if (journal != null) {
+                doc.putProperty(EditJournal.class, journal);
+                doc.putProperty(EDITS, journal.getEditCount());
+            }
+            if (isCancelled()) closeJournal(doc); // done() will not pick it up
+            return doc;
+        }
+
+        @Override
+        protected void process(List<Integer> percents) {
+            if (loading == this) {
+                CodeEditorPanel.setTitleAt(0, "Loading " + file.getName() + " (" + percents.get(percents.size() - 1) + "%)");
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) return;
+            loading = null;
+            try {
+                Document doc = get();
+                documents.put(file.toPath(), doc);
+                showFile(file, doc);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (java.util.concurrent.ExecutionException ex) {
+                CodeEditorPanel.setTitleAt(0, currentFile == null ? "Sourcecode" : currentFile.getName());
+                JOptionPane.showMessageDialog(MainFrame.this, "Could not open " + file.getName() + ": " + ex.getCause().getMessage());
+            }
+        }
+    }
+
+    // Tokenizes, parses, compiles and runs one program off the EDT, streaming its output
+    // through an OutputSink that repaints at most once a frame.
+    // Stop interrupts the worker thread; the engines check for that between statements.
+    private class ProgramRun extends SwingWorker<String, Void> {
+        private final String code;
+        private final Engine selected;
+        private final boolean optimized;
+        private final OutputSink output = new OutputSink(console);
+
+        ProgramRun(String code, Engine selected, boolean optimized) {
+            this.code = code;
+            this.selected = selected;
+            this.optimized = optimized;
+        }
+
+        @Override
+        protected String doInBackground() {
+            try {
+                // Compiled once per source, engine and optimize setting, then taken from the cache
+                CompileCache.Result result = compiled.compile(code, selected, optimized);
+                long started = System.nanoTime();
+                result.program.run(new AppendableIO(output, this::ask));
+                long millis = (System.nanoTime() - started) / 1000000;
+                return "Output (" + selected + ", " + millis + " ms" + (result.cached ? ", cached" : "") + ")";
+            } catch (CancellationException ex) {
+                return null;
+            } catch (Exception ex) {
+                output.append("Error: " + ex.getMessage()).append('\n');
+                return null;
+            }
+        }
+
+        // Input dialogs have to be shown on the EDT; the run waits for the answer
+        private String ask(String prompt) {
+            String[] answer = new String[1];
+            try {
+                SwingUtilities.invokeAndWait(() -> answer[0] = JOptionPane.showInputDialog(MainFrame.this, prompt));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Stopped");
+            } catch (java.lang.reflect.InvocationTargetException ex) {
+                throw new RuntimeException(ex.getCause());
+            }
+            return answer[0];
+        }
+
+        @Override
+        protected void done() {
+            output.close();
+            running = null;
+            BtnRUN.setText("Run");
+            if (isCancelled()) {
+                console.append("Stopped.\n");
+                OutputTabbedPanel.setTitleAt(0, "Output (stopped)");
+                return;
+            }
+            try {
+                String title = get();
+                if (title != null) {
+                    OutputTabbedPanel.setTitleAt(0, title);
+                }
+            } catch (Exception ex) {
+                console.append("Error: " + ex.getMessage() + "\n");
             }
         }
     }
+
+    // Ctrl+F in the output: jump to the next line containing the text
+    private void findInOutput() {
+    String needle = JOptionPane.showInputDialog(this, "Find in output:");
+    if (needle == null || needle.isEmpty()) return;
+    if (!consoleView.find(needle)) {
+        JOptionPane.showMessageDialog(this, "Not found: " + needle);
+    }
+}
+
+    // Shows the editor's program after constant folding and dead-branch pruning
+    private void showOptimizedTree() {
+    try {
+        Program ast = new Parser(new Tokenizer(CodeEditorTextArea.getText())).parse();
+        JTextArea view = new JTextArea(AstPrinter.print(Optimizer.optimize(ast)), 25, 60);
+        view.setEditable(false);
+        view.setFont(new java.awt.Font(java.awt.Font.MONOSPACED, java.awt.Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(view), "Optimized Tree", JOptionPane.PLAIN_MESSAGE);
+    } catch (Exception ex) {
+        JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
+    }
+}
     
-    jTree1.setModel(new DefaultTreeModel(root));
-    jTree1.setRootVisible(false);
+    // Gets the File object for the currently selected tree item
+    // onstructs full file path from project directory + filename
+    private File getSelectedTreeFile() {
+    Object node = jTree1.getLastSelectedPathComponent();
+    if (projectTree == null || !(node instanceof ProjectTreeModel.FileNode) || node == projectTree.getRoot()) return null; // Ignore root
+    return ((ProjectTreeModel.FileNode) node).getPath().toFile();
 }
    
  
@@ -623,36 +1001,16 @@ public class MainFrame extends JFrame {
     }//GEN-LAST:event_BtnSETTINGSActionPerformed
 
     private void BtnRUNActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_BtnRUNActionPerformed
-         OutputTextArea.setText(""); // Clear output
-    String code = CodeEditorTextArea.getText();
-
-    try {
-        // Tokenize and parse
-        Tokenizer tokenizer = new Tokenizer(code);
-        List<String> tokens = tokenizer.tokenize();
-
-        Parser parser = new Parser(tokens);
-        Map<String, Object> ast = parser.parse();
-
-        // Create Interpreter with the correct IOCallback reference
-        Interpreter interpreter = new Interpreter(new Interpreter.IOCallback() {
-            @Override
-            public void print(String text) {
-                OutputTextArea.append(text + "\n");
-            }
-
-            @Override
-            public String read(String prompt) {
-                return JOptionPane.showInputDialog(MainFrame.this, prompt);
-            }
-        });
-
-        // Run the program
-        interpreter.run(ast);
-
-    } catch (Exception ex) {
-        OutputTextArea.append("Error: " + ex.getMessage() + "\n");
+    // While a program is running this button is Stop
+    if (running != null) {
+        running.cancel(true);
+        return;
     }
+
+    console.clear(); // Clear output
+    running = new ProgramRun(CodeEditorTextArea.getText(), engine, optimize);
+    BtnRUN.setText("Stop");
+    running.execute();
     }//GEN-LAST:event_BtnRUNActionPerformed
 
     private void NEWFileMenuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_NEWFileMenuActionPerformed
@@ -663,7 +1021,7 @@ public class MainFrame extends JFrame {
             File newFile = new File(projectDirectory, name);
             if (!newFile.exists()) {
                 newFile.createNewFile();
-                refreshTree();
+                treeChanged(newFile.toPath());
             } else {
                 JOptionPane.showMessageDialog(this, "File already exists!");
             }
@@ -673,20 +1031,11 @@ public class MainFrame extends JFrame {
     }//GEN-LAST:event_NEWFileMenuActionPerformed
       
     private void SAVEFileMenuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_SAVEFileMenuActionPerformed
-       try {
-            if (currentFile == null) {
-                 SAVEASFileMenuActionPerformed(evt);
-                return;
-            }
-            
-            FileWriter writer = new FileWriter(currentFile);
-            writer.write(CodeEditorTextArea.getText());
-            writer.close();
-            JOptionPane.showMessageDialog(this, "Saved!");
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        if (currentFile == null) {
+            SAVEASFileMenuActionPerformed(evt);
+            return;
         }
-    
+        startSave(currentFile, null);
     }//GEN-LAST:event_SAVEFileMenuActionPerformed
 
     private void SAVEASFileMenuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_SAVEASFileMenuActionPerformed
@@ -695,21 +1044,9 @@ public class MainFrame extends JFrame {
         if (result == JFileChooser.APPROVE_OPTION) {
             File newFile = chooser.getSelectedFile();
             
-            try {
-                if (currentFile != null && !currentFile.equals(newFile)) {
-                    currentFile.delete();
-                }
-                
-                FileWriter writer = new FileWriter(newFile);
-                writer.write(CodeEditorTextArea.getText());
-                writer.close();
-                
-                currentFile = newFile;
-                CodeEditorPanel.setTitleAt(0, currentFile.getName());
-                refreshTree();
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            // The old file is only deleted once the new one is safely written
+            File replaced = currentFile != null && !currentFile.equals(newFile) ? currentFile : null;
+            startSave(newFile, replaced);
         }
     }//GEN-LAST:event_SAVEASFileMenuActionPerformed
 
@@ -725,7 +1062,7 @@ public class MainFrame extends JFrame {
         
         if (confirm == JOptionPane.YES_OPTION) {
             deleteRecursively(selected);
-            refreshTree();
+            treeChanged(selected.toPath());
         }
     }
     
@@ -0,0 +1,123 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import javax.swing.Timer;
+
+/**
+ * Collects a running program's output and hands it to the console in one
+ * batched append per frame (about 60 a second), instead of one update and
+ * repaint per PRESENT.
+ * <p>
+ * One program thread appends and the EDT drains, with no locks: text goes
+ * into a linked list of fixed-size char chunks, and each chunk's
+ * {@code published} count is the only thing the two threads share besides
+ * the link to the next chunk.
+ */
+public class OutputSink implements Appendable {
+    private static final int CHUNK = 8192;
+    private static final int FRAME_MILLIS = 16;
+
+    private static final class Chunk {
+        final char[] chars = new char[CHUNK];
+        volatile int published; // chars [0, published) are written and visible
+        volatile Chunk next;    // set only once this chunk is full
+    }
+
+    private final ConsoleModel target;
+    private final Timer timer;
+    private final StringBuilder batch = new StringBuilder();
+    private volatile boolean closed; // set by close(); the writer drops text from then on
+
+    // Writer side (the program thread)
+    private Chunk tail;
+    private int tailLength;
+
+    // Reader side (the EDT)
+    private Chunk head;
+    private int headRead;
+
+    public OutputSink(ConsoleModel target) {
+        this.target = target;
+        this.head = this.tail = new Chunk();
+        this.timer = new Timer(FRAME_MILLIS, e -> flush());
+        this.timer.start();
+    }
+
+    // ----------------------
+    // Writer side
+    // ----------------------
+    @Override
+    public OutputSink append(CharSequence text) {
+        return append(text, 0, text.length());
+    }
+
+    @Override
+    public OutputSink append(CharSequence text, int start, int end) {
+        if (closed) return this;
+        while (start < end) {
+            if (tailLength == CHUNK) nextChunk();
+            int n = Math.min(end - start, CHUNK - tailLength);
+            if (text instanceof String) {
+                ((String) text).getChars(start, start + n, tail.chars, tailLength);
+            } else if (text instanceof StringBuilder) {
+                ((StringBuilder) text).getChars(start, start + n, tail.chars, tailLength);
+            } else {
+                for (int i = 0; i < n; i++) tail.chars[tailLength + i] = text.charAt(start + i);
+            }
+            tailLength += n;
+            start += n;
+        }
+        tail.published = tailLength;
+        return this;
+    }
+
+    @Override
+    public OutputSink append(char c) {
+        if (closed) return this;
+        if (tailLength == CHUNK) nextChunk();
+        tail.chars[tailLength++] = c;
+        tail.published = tailLength;
+        return this;
+    }
+
+    private void nextChunk() {
+        Chunk chunk = new Chunk();
+        tail.published = CHUNK;
+        tail.next = chunk; // published above is visible to whoever sees this link
+        tail = chunk;
+        tailLength = 0;
+    }
+
+    // ----------------------
+    // Reader side (EDT)
+    // ----------------------
+
+    /** Moves everything written so far into the console in a single append. */
+    public void flush() {
+        batch.setLength(0);
+        while (true) {
+            Chunk next = head.next; // read the link first: if set, head is complete
+            int end = head.published;
+            if (end > headRead) {
+                batch.append(head.chars, headRead, end - headRead);
+                headRead = end;
+            }
+            if (next == null) break;
+            head = next;
+            headRead = 0;
+        }
+        if (batch.length() > 0) {
+            target.append(batch);
+        }
+    }
+
+    /** Flushes what is left and stops the frame timer; later writes are dropped. */
+    public void close() {
+        closed = true;
+        timer.stop();
+        flush();
+    }
+}
@@ -0,0 +1,843 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Plain-text document for the code editor, built for very large files.
+ * <p>
+ * The text is a piece table: an immutable original buffer plus an
+ * append-only buffer of everything typed, with a list of pieces saying
+ * which spans of the two make up the document. The original is the file
+ * decoded once into a memory-mapped temp file, so it lives in the page
+ * cache rather than on the heap, and editing never copies it. Reads hand
+ * out segments pointing into the typed text, or into a small cache of
+ * pages of the original, rather than copying each range.
+ * <p>
+ * Lines are not {@code Element} objects kept per line: a line-start index
+ * (a gap buffer of offsets) is updated incrementally on every edit, and
+ * the root element hands out lightweight line elements on demand.
+ */
+public class PieceTableDocument extends AbstractDocument {
+    private static final int DECODE_CHUNK = 1 << 20;
+
+    private final PieceTable table;
+    private final LineRoot root = new LineRoot();
+
+    /** An empty document. */
+    public PieceTableDocument() {
+        this(new PieceTable(CharBuffer.allocate(0)));
+    }
+
+    private PieceTableDocument(PieceTable table) {
+        super(table);
+        this.table = table;
+        putProperty(PlainDocument.tabSizeAttribute, 8);
+    }
+
+    /** Opens {@code file}; the cost is one streaming decode pass, not heap copies of the text. */
+    public static PieceTableDocument open(Path file, Charset charset) throws IOException {
+        return open(file, charset, percent -> { });
+    }
+
+    /**
+     * Opens {@code file}, reporting progress (0 to 100) to {@code progress}
+     * as it decodes. Interrupting the thread cancels the open with an
+     * {@link InterruptedIOException}.
+     */
+    public static PieceTableDocument open(Path file, Charset charset, IntConsumer progress) throws IOException {
+        return new PieceTableDocument(new PieceTable(decode(file, charset, progress)));
+    }
+
+    /** Decodes a mapped file into a mapped UTF-16 temp file and returns that as a CharBuffer. */
+    private static CharBuffer decode(Path file, Charset charset, IntConsumer progress) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        Path temp = Files.createTempFile("customlang-doc", ".utf16");
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long maxChars = (long) Math.ceil(size * (double) decoder.maxCharsPerByte());
+            if (maxChars > Integer.MAX_VALUE / 2) {
+                throw new IOException("File too large to edit: " + file);
+            }
+            MappedByteBuffer bytes = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CharBuffer chars = out.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(2, maxChars * 2)).asCharBuffer();
+            int done = 0;
+            do {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Open cancelled: " + file);
+                }
+                // A char split across chunks is left in bytes and finished by the next chunk
+                done = (int) Math.min(size, done + (long) DECODE_CHUNK);
+                bytes.limit(done);
+                decoder.decode(bytes, chars, done == size);
+                progress.accept(size == 0 ? 100 : (int) (done * 100L / size));
+            } while (done < size);
+            decoder.flush(chars);
+            chars.flip();
+            return chars;
+        } finally {
+            // The mapping keeps the data; on systems that refuse to delete a mapped file, do it at exit
+            try {
+                Files.delete(temp);
+            } catch (IOException e) {
+                temp.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    // ----------------------
+    // Line structure events
+    // ----------------------
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        // The content has already updated the line index
+        int newlines = table.lastInsertNewlines;
+        if (newlines > 0) {
+            int index = root.getElementIndex(chng.getOffset());
+            chng.addEdit(new LineChange(index, 1, newlines + 1));
+        }
+        super.insertUpdate(chng, attr);
+    }
+
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        // Called before the text goes, so the lines it spans can still be found
+        int first = root.getElementIndex(chng.getOffset());
+        int last = root.getElementIndex(chng.getOffset() + chng.getLength());
+        if (last > first) {
+            chng.addEdit(new LineChange(first, last - first + 1, 1));
+        }
+        super.removeUpdate(chng);
+    }
+
+    private Element[] lines(int from, int count) {
+        Element[] lines = new Element[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = new LineElement(from + i);
+        }
+        return lines;
+    }
+
+    /**
+     * The lines replaced by one edit; undo and redo just swap the two
+     * counts, as ElementEdit swaps its lists. Only counts are kept, so a
+     * big paste in the undo history does not hold an element per line.
+     */
+    private final class LineChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+        private final int index;
+        private int removed;
+        private int added;
+
+        LineChange(int index, int removed, int added) {
+            this.index = index;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            return lines(index, removed);
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return lines(index, added);
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            swap();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            swap();
+        }
+
+        private void swap() {
+            int tmp = removed;
+            removed = added;
+            added = tmp;
+        }
+    }
+
+    // ----------------------
+    // Elements
+    // ----------------------
+    private abstract class LineElementBase implements Element {
+        @Override
+        public javax.swing.text.Document getDocument() {
+            return PieceTableDocument.this;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+    }
+
+    private final class LineRoot extends LineElementBase {
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return SectionElementName;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return table.lines.lineOf(Math.max(0, Math.min(offset, getLength())));
+        }
+
+        @Override
+        public int getElementCount() {
+            return table.lines.count();
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return index >= 0 && index < getElementCount() ? new LineElement(index) : null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    /** Line {@code index}; its offsets are looked up in the line index each time. */
+    private final class LineElement extends LineElementBase {
+        private final int index;
+
+        LineElement(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return table.lines.start(index);
+        }
+
+        @Override
+        public int getEndOffset() {
+            return index + 1 < table.lines.count() ? table.lines.start(index + 1) : getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+
+    // ----------------------
+    // Line-start index
+    // ----------------------
+
+    /**
+     * Start offset of every line, in a gap buffer. Entries before the gap
+     * are absolute offsets; entries after it are stored as distances from
+     * the end of the text, so an edit shifts every later line for free and
+     * only the entries the gap moves over are touched.
+     */
+    static final class LineIndex {
+        private int[] starts = new int[64];
+        private int gap = 0;
+        private int gapEnd = starts.length;
+        private int textLength = 0; // without AbstractDocument's trailing newline
+
+        LineIndex(CharBuffer text) {
+            append(0);
+            for (int i = 0; i < text.limit(); i++) {
+                if (text.get(i) == '\n') append(i + 1);
+            }
+            textLength = text.limit();
+        }
+
+        private void append(int start) {
+            if (gap == gapEnd) grow();
+            starts[gap++] = start;
+        }
+
+        int count() {
+            return gap + starts.length - gapEnd;
+        }
+
+        int start(int line) {
+            return line < gap ? starts[line] : textLength - starts[gapEnd + line - gap];
+        }
+
+        /** The line containing {@code offset}. */
+        int lineOf(int offset) {
+            int low = 0;
+            int high = count() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (start(mid) <= offset) low = mid;
+                else high = mid - 1;
+            }
+            return low;
+        }
+
+        /** Text was inserted at {@code offset}; its newlines follow, in order, through {@link #newline(int)}. */
+        void inserted(int offset, int length) {
+            moveGap(lineOf(offset) + 1);
+            textLength += length;
+        }
+
+        /** The text just inserted has a newline at {@code offset}. */
+        void newline(int offset) {
+            append(offset + 1);
+        }
+
+        void removed(int offset, int length) {
+            int first = lineOf(offset) + 1;
+            int last = lineOf(offset + length);
+            moveGap(first);
+            gapEnd += Math.max(0, last - first + 1); // drop lines starting inside the removed text
+            textLength -= length;
+        }
+
+        private void moveGap(int line) {
+            while (gap > line) {
+                starts[--gapEnd] = textLength - starts[--gap];
+            }
+            while (gap < line) {
+                starts[gap++] = textLength - starts[gapEnd++];
+            }
+        }
+
+        private void grow() {
+            int[] grown = new int[starts.length * 2];
+            int tail = starts.length - gapEnd;
+            System.arraycopy(starts, 0, grown, 0, gap);
+            System.arraycopy(starts, gapEnd, grown, grown.length - tail, tail);
+            gapEnd = grown.length - tail;
+            starts = grown;
+        }
+    }
+
+    // ----------------------
+    // Piece table content
+    // ----------------------
+    private static final class Piece {
+        final boolean added; // in the add buffer, else in the original
+        final int start;
+        final int length;
+
+        Piece(boolean added, int start, int length) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The pieces in order, in blocks of a few hundred that each know their
+     * total length, so finding the piece at an offset skips whole blocks
+     * and inserting or removing one only shifts its own block.
+     */
+    private static final class PieceList {
+        private static final int BLOCK = 256;
+
+        private static final class Block {
+            final ArrayList<Piece> pieces = new ArrayList<>();
+            int length;
+        }
+
+        private final List<Block> blocks = new ArrayList<>();
+        private int size;
+
+        // Result of locate(): block and position inside it
+        private int block;
+        private int inBlock;
+
+        // Result of find(): where the found piece starts
+        int foundStart;
+
+        int size() {
+            return size;
+        }
+
+        private void locate(int index) {
+            block = 0;
+            while (block < blocks.size() - 1 && index >= blocks.get(block).pieces.size()) {
+                index -= blocks.get(block).pieces.size();
+                block++;
+            }
+            inBlock = index;
+        }
+
+        Piece get(int index) {
+            locate(index);
+            return blocks.get(block).pieces.get(inBlock);
+        }
+
+        /** Index of the piece containing {@code offset}, which must be inside the text. */
+        int find(int offset) {
+            int index = 0;
+            int start = 0;
+            int b = 0;
+            while (start + blocks.get(b).length <= offset) {
+                start += blocks.get(b).length;
+                index += blocks.get(b).pieces.size();
+                b++;
+            }
+            for (Piece piece : blocks.get(b).pieces) {
+                if (start + piece.length > offset) break;
+                start += piece.length;
+                index++;
+            }
+            foundStart = start;
+            return index;
+        }
+
+        void set(int index, Piece piece) {
+            locate(index);
+            Block in = blocks.get(block);
+            in.length += piece.length - in.pieces.set(inBlock, piece).length;
+        }
+
+        void add(int index, Piece piece) {
+            if (blocks.isEmpty()) blocks.add(new Block());
+            locate(index);
+            Block in = blocks.get(block);
+            in.pieces.add(inBlock, piece);
+            in.length += piece.length;
+            size++;
+            if (in.pieces.size() > 2 * BLOCK) {
+                // Split the block in two
+                Block half = new Block();
+                List<Piece> tail = in.pieces.subList(BLOCK, in.pieces.size());
+                for (Piece moved : tail) {
+                    half.length += moved.length;
+                }
+                half.pieces.addAll(tail);
+                tail.clear();
+                in.length -= half.length;
+                blocks.add(block + 1, half);
+            }
+        }
+
+        /** Removes pieces [from, to). */
+        void remove(int from, int to) {
+            for (int n = to - from; n > 0; n--) {
+                locate(from);
+                Block in = blocks.get(block);
+                in.length -= in.pieces.remove(inBlock).length;
+                size--;
+                if (in.pieces.isEmpty() && blocks.size() > 1) blocks.remove(block);
+            }
+        }
+    }
+
+    static final class PieceTable implements AbstractDocument.Content {
+        private static final int PAGE = 8192; // chars of the original read into the heap at a time
+        private static final int PAGES = 64;
+        private final CharBuffer original;
+        private final Map<Integer, char[]> pages = new LinkedHashMap<Integer, char[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+                return size() > PAGES;
+            }
+        };
+        private char[] add = { '\n' }; // append-only; starts with AbstractDocument's final newline
+        private int added = 1;
+        private final PieceList pieces = new PieceList();
+        private final List<WeakReference<Mark>> marks = new ArrayList<>();
+        private int length;
+        final LineIndex lines;
+        int lastInsertNewlines; // read by insertUpdate right after each insert
+
+        PieceTable(CharBuffer original) {
+            this.original = original;
+            this.lines = new LineIndex(original);
+            if (original.limit() > 0) pieces.add(0, new Piece(false, 0, original.limit()));
+            pieces.add(pieces.size(), new Piece(true, 0, 1));
+            this.length = original.limit() + 1;
+        }
+
+        @Override
+        public synchronized int length() {
+            return length;
+        }
+
+        /** Splits pieces so one starts exactly at {@code offset}, and returns its index. */
+        private int splitAt(int offset) {
+            int index = pieces.find(offset);
+            int inner = offset - pieces.foundStart;
+            if (inner == 0) return index;
+            Piece piece = pieces.get(index);
+            pieces.set(index, new Piece(piece.added, piece.start, inner));
+            pieces.add(index + 1, new Piece(piece.added, piece.start + inner, piece.length - inner));
+            return index + 1;
+        }
+
+        @Override
+        public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+            if (where < 0 || where >= length) throw new BadLocationException("Invalid insert", where);
+            insert(where, str);
+            return new InsertUndo(where, str.length());
+        }
+
+        private void insert(int where, String str) {
+            Piece piece = new Piece(true, added, str.length());
+            if (added + str.length() > add.length) {
+                // A new array: segments handed out still point at the old one, which stays as it was
+                add = Arrays.copyOf(add, Math.max(added + str.length(), add.length * 2));
+            }
+            str.getChars(0, str.length(), add, added);
+            added += str.length();
+            insert(where, Collections.singletonList(piece));
+        }
+
+        /** Puts {@code inserted} (typed text, or pieces an undo or redo brings back) at {@code where}. */
+        private void insert(int where, List<Piece> inserted) {
+            int index = splitAt(where);
+            int count = 0;
+            for (Piece piece : inserted) {
+                Piece before = index > 0 ? pieces.get(index - 1) : null;
+                if (before != null && before.added == piece.added && before.start + before.length == piece.start) {
+                    // Typing: extend the piece that ends where this one starts
+                    pieces.set(index - 1, new Piece(piece.added, before.start, before.length + piece.length));
+                } else {
+                    pieces.add(index++, piece);
+                }
+                count += piece.length;
+            }
+            length += count;
+
+            lines.inserted(where, count);
+            int newlines = 0;
+            int at = where;
+            for (Piece piece : inserted) {
+                for (int i = 0; i < piece.length; i++) {
+                    char c = piece.added ? add[piece.start + i] : original.get(piece.start + i);
+                    if (c == '\n') {
+                        lines.newline(at + i);
+                        newlines++;
+                    }
+                }
+                at += piece.length;
+            }
+            lastInsertNewlines = newlines;
+            updateMarksForInsert(where, count);
+        }
+
+        @Override
+        public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+            if (where < 0 || nitems < 0 || where + nitems >= length) {
+                throw new BadLocationException("Invalid remove", where + nitems);
+            }
+            RemoveUndo undo = new RemoveUndo(where, nitems);
+            undo.pieces = delete(where, nitems);
+            return undo;
+        }
+
+        /** Removes the text and returns the pieces that held it (for undo, which needs no copy of the text). */
+        private List<Piece> delete(int where, int nitems) {
+            if (nitems == 0) return Collections.emptyList();
+            int first = splitAt(where);
+            int end = splitAt(where + nitems);
+            List<Piece> removed = new ArrayList<>(end - first);
+            for (int i = first; i < end; i++) {
+                removed.add(pieces.get(i));
+            }
+            pieces.remove(first, end);
+            length -= nitems;
+            lines.removed(where, nitems);
+            updateMarksForRemove(where, nitems);
+            return removed;
+        }
+
+        @Override
+        public synchronized String getString(int where, int len) throws BadLocationException {
+            char[] chars = new char[len];
+            copy(where, len, chars);
+            return new String(chars);
+        }
+
+        /**
+         * Points {@code txt} straight at the text when the range lies in one
+         * piece of typed text or one page of the original, and with a partial
+         * return asked for, at as much of the range as does; otherwise copies.
+         */
+        @Override
+        public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length) {
+                throw new BadLocationException("Invalid range", where + len);
+            }
+            if (len > 0) {
+                int index = pieces.find(where);
+                int inner = where - pieces.foundStart;
+                Piece piece = pieces.get(index);
+                int n = Math.min(piece.length - inner, len);
+                if (piece.added) {
+                    txt.array = add;
+                    txt.offset = piece.start + inner;
+                } else {
+                    int at = piece.start + inner;
+                    txt.array = page(at / PAGE);
+                    txt.offset = at % PAGE;
+                    n = Math.min(n, txt.array.length - txt.offset);
+                }
+                if (n == len || txt.isPartialReturn()) {
+                    txt.count = n;
+                    return;
+                }
+            }
+            char[] chars = new char[len];
+            copy(where, len, chars);
+            txt.array = chars;
+            txt.offset = 0;
+            txt.count = len;
+        }
+
+        /** Page {@code number} of the original, read from the mapping once and then kept while it is in use. */
+        private char[] page(int number) {
+            char[] page = pages.get(number);
+            if (page == null) {
+                int start = number * PAGE;
+                page = new char[Math.min(PAGE, original.limit() - start)];
+                CharBuffer source = original.duplicate();
+                source.position(start);
+                source.get(page);
+                pages.put(number, page);
+            }
+            return page;
+        }
+
+        private void copy(int where, int len, char[] dst) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length) {
+                throw new BadLocationException("Invalid range", where + len);
+            }
+            int index = pieces.find(Math.min(where, length - 1));
+            int inner = where - pieces.foundStart;
+            int done = 0;
+            while (done < len) {
+                Piece piece = pieces.get(index++);
+                int n = Math.min(piece.length - inner, len - done);
+                if (piece.added) {
+                    System.arraycopy(add, piece.start + inner, dst, done, n);
+                } else {
+                    CharBuffer source = original.duplicate();
+                    source.position(piece.start + inner);
+                    source.get(dst, done, n);
+                }
+                done += n;
+                inner = 0;
+            }
+        }
+
+        // ----------------------
+        // Positions (same rules as StringContent)
+        // ----------------------
+        private static final class Mark implements Position {
+            int offset;
+
+            Mark(int offset) {
+                this.offset = offset;
+            }
+
+            @Override
+            public int getOffset() {
+                return offset;
+            }
+        }
+
+        @Override
+        public synchronized Position createPosition(int offset) throws BadLocationException {
+            Mark mark = new Mark(offset);
+            marks.add(new WeakReference<>(mark));
+            return mark;
+        }
+
+        private void updateMarksForInsert(int offset, int len) {
+            if (offset == 0) offset = 1; // a mark at 0 stays at the start
+            for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext();) {
+                Mark mark = it.next().get();
+                if (mark == null) it.remove();
+                else if (mark.offset >= offset) mark.offset += len;
+            }
+        }
+
+        private void updateMarksForRemove(int offset, int len) {
+            for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext();) {
+                Mark mark = it.next().get();
+                if (mark == null) it.remove();
+                else if (mark.offset >= offset + len) mark.offset -= len;
+                else if (mark.offset >= offset) mark.offset = offset;
+            }
+        }
+
+        // ----------------------
+        // Undo
+        // ----------------------
+        // Undo records keep the pieces an edit took out, not the text: the
+        // buffers they point into never change, so that is enough to put it back
+
+        private final class InsertUndo extends AbstractUndoableEdit {
+            private final int where;
+            private final int length;
+            private List<Piece> pieces;
+
+            InsertUndo(int where, int length) {
+                this.where = where;
+                this.length = length;
+            }
+
+            @Override
+            public void undo() throws CannotUndoException {
+                super.undo();
+                synchronized (PieceTable.this) {
+                    pieces = delete(where, length);
+                }
+            }
+
+            @Override
+            public void redo() throws CannotRedoException {
+                super.redo();
+                synchronized (PieceTable.this) {
+                    insert(where, pieces);
+                }
+            }
+        }
+
+        private final class RemoveUndo extends AbstractUndoableEdit {
+            private final int where;
+            private final int length;
+            private List<Piece> pieces;
+            // Marks the removal collapsed, put back where they were on undo
+            private final List<Mark> collapsed = new ArrayList<>();
+            private final List<Integer> offsets = new ArrayList<>();
+
+            RemoveUndo(int where, int length) {
+                this.where = where;
+                this.length = length;
+                for (WeakReference<Mark> ref : marks) {
+                    Mark mark = ref.get();
+                    if (mark != null && mark.offset >= where && mark.offset <= where + length) {
+                        collapsed.add(mark);
+                        offsets.add(mark.offset);
+                    }
+                }
+            }
+
+            @Override
+            public void undo() throws CannotUndoException {
+                super.undo();
+                synchronized (PieceTable.this) {
+                    insert(where, pieces);
+                    for (int i = 0; i < collapsed.size(); i++) {
+                        collapsed.get(i).offset = offsets.get(i);
+                    }
+                }
+            }
+
+            @Override
+            public void redo() throws CannotRedoException {
+                super.redo();
+                synchronized (PieceTable.this) {
+                    pieces = delete(where, length);
+                }
+            }
+        }
+    }
+}
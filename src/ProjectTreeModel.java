@@ -0,0 +1,333 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * The project directory as a tree. A directory's entries are listed (and
+ * their attributes cached) only when the tree first asks for them, which
+ * it does when the directory is expanded, so opening a big project lists
+ * one directory. Listed directories are watched, and each change updates
+ * just the node concerned instead of rescanning. The temp files saves write
+ * are left out.
+ * <p>
+ * Used from the EDT only; the watch thread hands its events over with
+ * invokeLater.
+ */
+public class ProjectTreeModel implements TreeModel {
+
+    /** A file or directory, with the attributes read when it was listed. */
+    public static final class FileNode {
+        private final Path path;
+        private final String name;
+        private final FileNode parent;
+        private boolean directory;
+        private long size;
+        private long modified;
+        private List<FileNode> children; // null until listed
+
+        FileNode(Path path, FileNode parent, BasicFileAttributes attributes) {
+            this.path = path;
+            this.name = path.getFileName() == null ? path.toString() : path.getFileName().toString();
+            this.parent = parent;
+            update(attributes);
+        }
+
+        private void update(BasicFileAttributes attributes) {
+            directory = attributes.isDirectory();
+            size = attributes.size();
+            modified = attributes.lastModifiedTime().toMillis();
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // Directories first, then by name
+    private static final Comparator<FileNode> ORDER = (a, b) -> compare(a.directory, a.name, b);
+
+    private static int compare(boolean directory, String name, FileNode node) {
+        if (directory != node.directory) return directory ? -1 : 1;
+        return name.compareTo(node.name);
+    }
+
+    private final FileNode root;
+    private final List<TreeModelListener> listeners = new ArrayList<>();
+    private final WatchService watcher;
+    private final Map<WatchKey, FileNode> watched = new ConcurrentHashMap<>();
+
+    public ProjectTreeModel(Path directory) throws IOException {
+        this.root = new FileNode(directory, null, Files.readAttributes(directory, BasicFileAttributes.class));
+        this.watcher = directory.getFileSystem().newWatchService();
+        Thread thread = new Thread(this::watch, "customlang-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops watching the file system. */
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    // ----------------------
+    // TreeModel
+    // ----------------------
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return !((FileNode) node).directory; // from the cached attributes, no file system access
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return children((FileNode) parent).size();
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return children((FileNode) parent).get(index);
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (parent == null || child == null) return -1;
+        int index = Collections.binarySearch(children((FileNode) parent), (FileNode) child, ORDER);
+        return index >= 0 ? index : -1;
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // Nodes are not editable
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener listener) {
+        listeners.remove(listener);
+    }
+
+    // ----------------------
+    // Listing
+    // ----------------------
+    private List<FileNode> children(FileNode node) {
+        if (node.children == null) {
+            node.children = node.directory ? list(node) : Collections.emptyList();
+        }
+        return node.children;
+    }
+
+    private List<FileNode> list(FileNode dir) {
+        List<FileNode> entries = new ArrayList<>();
+        try {
+            // Watch before listing, so nothing created in between is missed
+            watched.put(dir.path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        } catch (IOException | ClosedWatchServiceException e) {
+            // Still listed, just not kept up to date
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.path)) {
+            for (Path path : stream) {
+                if (SaveService.isTempFile(path)) continue;
+                try {
+                    entries.add(new FileNode(path, dir, Files.readAttributes(path, BasicFileAttributes.class)));
+                } catch (IOException e) {
+                    // Gone since it was listed
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable directory: show it empty
+        }
+        entries.sort(ORDER);
+        return entries;
+    }
+
+    // ----------------------
+    // Updates
+    // ----------------------
+
+    /**
+     * Brings the node for {@code path} up to date with the file system:
+     * adds, removes or refreshes it. Nothing happens if its directory has
+     * not been listed yet. Called for watch events, and directly after the
+     * IDE itself changes a file so the tree does not wait for the watcher.
+     */
+    public void changed(Path path) {
+        if (SaveService.isTempFile(path)) return; // there only for the moment a save takes
+        FileNode parent = loadedNode(path.toAbsolutePath().normalize().getParent());
+        if (parent == null || parent.children == null) return;
+        FileNode existing = find(parent, path.getFileName().toString());
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            attributes = null; // deleted
+        }
+
+        if (existing != null && (attributes == null || attributes.isDirectory() != existing.directory)) {
+            int index = Collections.binarySearch(parent.children, existing, ORDER);
+            parent.children.remove(index);
+            unwatch(existing);
+            fire(new TreeModelEvent(this, pathTo(parent), new int[] { index }, new Object[] { existing }), Kind.REMOVED);
+            existing = null;
+        }
+        if (attributes == null) return;
+        if (existing != null) {
+            existing.update(attributes);
+            int index = Collections.binarySearch(parent.children, existing, ORDER);
+            fire(new TreeModelEvent(this, pathTo(parent), new int[] { index }, new Object[] { existing }), Kind.CHANGED);
+        } else {
+            FileNode node = new FileNode(parent.path.resolve(path.getFileName()), parent, attributes);
+            int index = -Collections.binarySearch(parent.children, node, ORDER) - 1;
+            parent.children.add(index, node);
+            fire(new TreeModelEvent(this, pathTo(parent), new int[] { index }, new Object[] { node }), Kind.INSERTED);
+        }
+    }
+
+    /** Re-lists a directory whose events were lost. */
+    private void relist(FileNode dir) {
+        if (dir.children == null) return;
+        for (FileNode child : dir.children) {
+            unwatch(child);
+        }
+        dir.children = list(dir);
+        fire(new TreeModelEvent(this, pathTo(dir)), Kind.STRUCTURE);
+    }
+
+    /** The listed node for {@code path}, or null if it is outside the project or not listed. */
+    private FileNode loadedNode(Path path) {
+        Path rootPath = root.path.toAbsolutePath().normalize();
+        if (path == null || !path.startsWith(rootPath)) return null;
+        FileNode node = root;
+        for (Path name : rootPath.relativize(path)) {
+            if (name.toString().isEmpty()) continue; // path is the root itself
+            if (node.children == null) return null;
+            node = find(node, name.toString());
+            if (node == null) return null;
+        }
+        return node;
+    }
+
+    /** The child called {@code name}, by binary search (once as a directory, once as a file). */
+    private static FileNode find(FileNode dir, String name) {
+        List<FileNode> children = dir.children;
+        for (boolean directory : new boolean[] { true, false }) {
+            int low = 0;
+            int high = children.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int order = compare(directory, name, children.get(mid));
+                if (order == 0) return children.get(mid);
+                if (order < 0) high = mid - 1;
+                else low = mid + 1;
+            }
+        }
+        return null;
+    }
+
+    private void unwatch(FileNode node) {
+        if (node.children == null) return;
+        watched.entrySet().removeIf(entry -> {
+            if (entry.getValue() != node) return false;
+            entry.getKey().cancel();
+            return true;
+        });
+        for (FileNode child : node.children) {
+            unwatch(child);
+        }
+    }
+
+    private TreePath pathTo(FileNode node) {
+        return node.parent == null ? new TreePath(node) : pathTo(node.parent).pathByAddingChild(node);
+    }
+
+    private enum Kind { INSERTED, REMOVED, CHANGED, STRUCTURE }
+
+    private void fire(TreeModelEvent event, Kind kind) {
+        for (TreeModelListener listener : new ArrayList<>(listeners)) {
+            switch (kind) {
+                case INSERTED: listener.treeNodesInserted(event); break;
+                case REMOVED: listener.treeNodesRemoved(event); break;
+                case CHANGED: listener.treeNodesChanged(event); break;
+                default: listener.treeStructureChanged(event); break;
+            }
+        }
+    }
+
+    // ----------------------
+    // Watch thread
+    // ----------------------
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                FileNode dir = watched.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (dir == null) continue;
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        SwingUtilities.invokeLater(() -> relist(dir));
+                    } else {
+                        Path changed = dir.path.resolve((Path) event.context());
+                        SwingUtilities.invokeLater(() -> changed(changed));
+                    }
+                }
+                if (!key.reset()) watched.remove(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * Writes files on a background I/O thread. Each save encodes the text,
+ * writes it to a temp file next to the target, forces it to disk and
+ * atomically moves it over the target, so a crash leaves either the old
+ * file or the new one, never a torn one. The temp file has to be in the
+ * same directory for the move to be atomic; {@link #isTempFile(Path)}
+ * tells listings to leave it out.
+ * <p>
+ * A save that is still queued when the same file is saved again is
+ * replaced by the newer text, and text whose SHA-256 matches the file on
+ * disk is not written at all. The hash of what each file last held is
+ * kept with its size and modification time, so the file is only read
+ * back and hashed when its size matches and it was changed by someone
+ * else since (or not seen yet).
+ */
+public class SaveService {
+
+    /** Told, on the EDT, how a save ended; {@code error} is null on success. */
+    public interface Callback {
+        void done(Path file, IOException error);
+    }
+
+    private static final class Request {
+        String text;
+        Path obsolete;
+        Callback callback;
+
+        Request(String text, Path obsolete, Callback callback) {
+            this.text = text;
+            this.obsolete = obsolete;
+            this.callback = callback;
+        }
+    }
+
+    /** What a file held when this service last wrote or read it. */
+    private static final class OnDisk {
+        final byte[] hash;
+        final long size;
+        final FileTime modified;
+
+        OnDisk(byte[] hash, long size, FileTime modified) {
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Charset charset;
+    private final ExecutorService io;
+    private final Map<Path, Request> pending = new HashMap<>(); // guarded by this
+    private final Map<Path, OnDisk> known = new HashMap<>();    // I/O thread only
+
+    public SaveService(Charset charset) {
+        this.charset = charset;
+        // Not a daemon: a save in progress is finished before the JVM exits
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "customlang-save"));
+        executor.allowCoreThreadTimeOut(true);
+        this.io = executor;
+    }
+
+    /** Whether {@code file} is a temp file a save writes before moving it into place. */
+    public static boolean isTempFile(Path file) {
+        Path name = file.getFileName();
+        return name != null && name.toString().startsWith(".") && name.toString().endsWith(TEMP_SUFFIX);
+    }
+
+    /** Saves {@code text} to {@code file}. */
+    public void save(Path file, String text, Callback callback) {
+        save(file, text, null, callback);
+    }
+
+    /**
+     * Saves {@code text} to {@code file}, then deletes {@code obsolete}
+     * (the file it was saved as before) once the new one is safely written.
+     */
+    public void save(Path file, String text, Path obsolete, Callback callback) {
+        synchronized (this) {
+            Request queued = pending.get(file);
+            if (queued != null) {
+                queued.text = text;
+                if (obsolete != null) queued.obsolete = obsolete;
+                queued.callback = callback;
+                return;
+            }
+            pending.put(file, new Request(text, obsolete, callback));
+        }
+        io.execute(() -> write(file));
+    }
+
+    /** Waits up to {@code millis} for queued saves to finish, then stops taking new ones. */
+    public void finish(long millis) throws InterruptedException {
+        io.shutdown();
+        io.awaitTermination(millis, TimeUnit.MILLISECONDS);
+    }
+
+    // ----------------------
+    // I/O thread
+    // ----------------------
+    private void write(Path file) {
+        Request request;
+        synchronized (this) {
+            request = pending.remove(file);
+        }
+        IOException error = null;
+        try {
+            ByteBuffer bytes = charset.newEncoder().encode(CharBuffer.wrap(request.text));
+            byte[] hash = sha256(bytes.duplicate());
+            if (!sameOnDisk(file, bytes.remaining(), hash)) {
+                writeAtomically(file, bytes);
+                remember(file, hash);
+            }
+            if (request.obsolete != null && !request.obsolete.equals(file)) {
+                Files.deleteIfExists(request.obsolete);
+                known.remove(request.obsolete);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        IOException failure = error;
+        Callback callback = request.callback;
+        SwingUtilities.invokeLater(() -> callback.done(file, failure));
+    }
+
+    private static void writeAtomically(Path file, ByteBuffer bytes) throws IOException {
+        // Write where a symlink points, not over the link
+        Path target = Files.exists(file) ? file.toRealPath() : file.toAbsolutePath();
+        Path dir = target.getParent();
+        Path temp = createTemp(dir, target.getFileName().toString());
+        try {
+            // The temp file takes the place of the target, so it takes its permissions too
+            if (Files.exists(target) && Files.getFileAttributeView(target, PosixFileAttributeView.class) != null) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            }
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                out.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        // Make the rename itself durable where directories can be forced (not on Windows)
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    /**
+     * A new, empty temp file in {@code dir}. Made with createFile rather than
+     * createTempFile, which makes it owner-only: a new file gets the
+     * permissions the user's umask gives any other.
+     */
+    private static Path createTemp(Path dir, String name) throws IOException {
+        while (true) {
+            Path temp = dir.resolve("." + name + "." + Long.toHexString(RANDOM.nextLong() >>> 1) + TEMP_SUFFIX);
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // Another name, then
+            }
+        }
+    }
+
+    /**
+     * Whether {@code file} already holds exactly these bytes. Read back only
+     * when the size matches and the file changed since it was last seen.
+     */
+    private boolean sameOnDisk(Path file, long size, byte[] hash) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.size() != size) return false;
+            OnDisk seen = known.get(file);
+            if (seen == null || seen.size != size || !seen.modified.equals(attributes.lastModifiedTime())) {
+                // Stamped before reading, so a change made while it is read is seen next time
+                seen = new OnDisk(sha256(file), size, attributes.lastModifiedTime());
+                known.put(file, seen);
+            }
+            return Arrays.equals(hash, seen.hash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void remember(Path file, byte[] hash) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            known.put(file, new OnDisk(hash, attributes.size(), attributes.lastModifiedTime()));
+        } catch (IOException e) {
+            known.remove(file);
+        }
+    }
+
+    private static byte[] sha256(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // Digesting as it reads
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] sha256(ByteBuffer bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+}
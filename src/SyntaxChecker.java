@@ -0,0 +1,255 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import customlang.Diagnostic;
+import customlang.ParseTree;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
+import javax.swing.text.View;
+
+/**
+ * Checks the editor's program as the user types. After a pause of
+ * {@link #DELAY_MILLIS} the text is snapshotted and parsed in recovery
+ * mode on a worker thread; each error is underlined in the editor, with
+ * its message as the tooltip. The worker keeps the last {@link ParseTree}
+ * and re-parses only the statements around what changed since; the span
+ * that changed is collected from the document events, so nothing is
+ * compared or copied per check beyond the snapshot itself.
+ * <p>
+ * A check still running when the text changes again is cancelled, and
+ * results for text that has changed since are dropped. Markers for the
+ * previous check stay up (and move with the edits) until the next one is
+ * done.
+ */
+public class SyntaxChecker implements DocumentListener {
+    public static final int DELAY_MILLIS = 300;
+
+    private static final Highlighter.HighlightPainter SQUIGGLE = new SquigglePainter(new Color(210, 30, 30));
+
+    private final JTextComponent editor;
+    private final Timer timer;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "customlang-diagnostics");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Document document;
+    private Future<?> checking; // the check in progress, if any
+    private int generation;     // bumped by every edit; a check's result is used only if it still matches
+    private ParseTree tree;     // the last text checked; worker thread only
+    private String submitted;   // the last snapshot handed to the worker
+    private int changeStart = -1; // span edited since then, in the current text; -1 if none
+    private int changeEnd;
+    private int changeDelta;    // chars added minus chars removed since then
+    private final List<Object> markers = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+
+    public SyntaxChecker(JTextComponent editor) {
+        this.editor = editor;
+        this.timer = new Timer(DELAY_MILLIS, e -> check());
+        timer.setRepeats(false);
+        editor.addPropertyChangeListener("document", this::documentChanged);
+        editor.addMouseMotionListener(new MouseAdapter() {
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                editor.setToolTipText(messageAt(editor.viewToModel(e.getPoint())));
+            }
+        });
+        attach(editor.getDocument());
+    }
+
+    /** Stops checking and the worker thread. */
+    public void close() {
+        timer.stop();
+        attach(null);
+        worker.shutdownNow();
+    }
+
+    private void documentChanged(PropertyChangeEvent evt) {
+        attach(editor.getDocument());
+    }
+
+    private void attach(Document doc) {
+        if (document != null) document.removeDocumentListener(this);
+        document = doc;
+        submitted = null; // another text: the worker finds what differs by comparing
+        changeStart = -1;
+        clearMarkers();
+        if (doc != null) {
+            doc.addDocumentListener(this);
+            edited();
+        }
+    }
+
+    // ----------------------
+    // Scheduling
+    // ----------------------
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (changeStart < 0) {
+            changeStart = offset;
+            changeEnd = offset + length;
+        } else {
+            changeEnd = offset <= changeEnd ? changeEnd + length : offset + length;
+            changeStart = Math.min(changeStart, offset);
+        }
+        changeDelta += length;
+        edited();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (changeStart < 0) {
+            changeStart = changeEnd = offset;
+        } else {
+            changeEnd = changeEnd >= offset + length ? changeEnd - length : offset;
+            changeStart = Math.min(changeStart, offset);
+        }
+        changeDelta -= length;
+        edited();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    private void edited() {
+        generation++;
+        if (checking != null) {
+            checking.cancel(true); // its text is already out of date
+            checking = null;
+        }
+        timer.restart();
+    }
+
+    private void check() {
+        String text;
+        try {
+            text = document.getText(0, document.getLength());
+        } catch (BadLocationException e) {
+            return;
+        }
+        int checked = generation;
+        String base = submitted;
+        int start = changeStart;
+        int removed = changeEnd - changeDelta - changeStart;
+        int inserted = changeEnd - changeStart;
+        submitted = text;
+        changeStart = -1;
+        changeDelta = 0;
+        checking = worker.submit(() -> {
+            if (tree == null) {
+                tree = ParseTree.parse(text);
+            } else if (tree.text() != base) {
+                tree = tree.edit(text); // the check for base never finished: compare to find the edit
+            } else if (start >= 0) {
+                tree = tree.edit(text, start, removed, inserted);
+            }
+            List<Diagnostic> found = tree.diagnostics();
+            if (Thread.currentThread().isInterrupted()) return;
+            SwingUtilities.invokeLater(() -> show(checked, found));
+        });
+    }
+
+    // ----------------------
+    // Markers
+    // ----------------------
+    private void show(int checked, List<Diagnostic> found) {
+        if (checked != generation) return; // edited while it ran; the next check replaces it
+        checking = null;
+        clearMarkers();
+        int length = document.getLength();
+        Highlighter highlighter = editor.getHighlighter();
+        for (Diagnostic diagnostic : found) {
+            int start = Math.min(diagnostic.getStart(), length);
+            int end = Math.min(diagnostic.getEnd(), length);
+            if (end == start) {
+                // A missing token: mark the char before it so there is something to see
+                if (start > 0) start--;
+                else if (end < length) end++;
+            }
+            try {
+                markers.add(highlighter.addHighlight(start, end, SQUIGGLE));
+                messages.add(diagnostic.getMessage());
+            } catch (BadLocationException e) {
+                // Clamped to the document above
+            }
+        }
+    }
+
+    private void clearMarkers() {
+        Highlighter highlighter = editor.getHighlighter();
+        for (Object marker : markers) {
+            highlighter.removeHighlight(marker);
+        }
+        markers.clear();
+        messages.clear();
+    }
+
+    /** The messages of the errors marked at {@code offset}, or null if there are none. */
+    private String messageAt(int offset) {
+        StringBuilder text = null;
+        for (int i = 0; i < markers.size(); i++) {
+            Highlighter.Highlight marker = (Highlighter.Highlight) markers.get(i);
+            if (offset >= marker.getStartOffset() && offset < Math.max(marker.getEndOffset(), marker.getStartOffset() + 1)) {
+                if (text == null) text = new StringBuilder();
+                else text.append('\n');
+                text.append(messages.get(i));
+            }
+        }
+        return text == null ? null : text.toString();
+    }
+
+    /** Zigzag underline; painted with the text, one line fragment at a time. */
+    private static final class SquigglePainter extends DefaultHighlighter.DefaultHighlightPainter {
+        SquigglePainter(Color color) {
+            super(color);
+        }
+
+        @Override
+        public Shape paintLayer(Graphics g, int offs0, int offs1, Shape bounds, JTextComponent c, View view) {
+            Rectangle r;
+            try {
+                Shape shape = view.modelToView(offs0, Position.Bias.Forward, offs1, Position.Bias.Backward, bounds);
+                r = shape instanceof Rectangle ? (Rectangle) shape : shape.getBounds();
+            } catch (BadLocationException e) {
+                return null;
+            }
+            g.setColor(getColor());
+            int y = r.y + r.height - 2;
+            for (int x = r.x; x < r.x + r.width; x += 4) {
+                int next = Math.min(x + 2, r.x + r.width);
+                g.drawLine(x, y, next, y + 2);
+                g.drawLine(next, y + 2, Math.min(next + 2, r.x + r.width), y);
+            }
+            return r;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Undo history for the code editor. Consecutive typing is merged into one
+ * undo step per word (and consecutive Backspace or Delete presses into
+ * one step), broken by a pause of {@link #PAUSE_MILLIS}; pastes and other
+ * multi-char edits are steps of their own.
+ * <p>
+ * The history is capped by an estimate of the memory it holds rather
+ * than by a number of steps: once over {@link #MAX_BYTES} the oldest steps
+ * are dropped. Edits of a {@link PieceTableDocument} keep pieces, not
+ * text, so they are counted at a small fixed size however big they are.
+ */
+public class UndoHistory extends UndoManager {
+    public static final long MAX_BYTES = 8L * 1024 * 1024;
+    public static final int PAUSE_MILLIS = 1000;
+
+    private static final int EDIT_OVERHEAD = 160; // event, content edit and element change objects
+
+    /** Edits undone and redone together. */
+    private static final class Step extends AbstractUndoableEdit {
+        final List<UndoableEdit> edits = new ArrayList<>();
+        final Document document;
+        final DocumentEvent.EventType type;
+        int start; // typing: where the run began; deleting: the current caret offset
+        int end;   // typing: where the next char goes
+        long last;
+        long bytes;
+
+        Step(Document document, DocumentEvent.EventType type) {
+            this.document = document;
+            this.type = type;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                edits.get(i).undo();
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            for (UndoableEdit edit : edits) {
+                edit.redo();
+            }
+        }
+
+        @Override
+        public String getPresentationName() {
+            return edits.get(0).getPresentationName();
+        }
+    }
+
+    private Step open; // the step typing can still extend, null after an undo or a multi-char edit
+    private long bytes;
+
+    public UndoHistory() {
+        setLimit(-1); // capped by bytes instead
+    }
+
+    @Override
+    public synchronized void undoableEditHappened(UndoableEditEvent e) {
+        UndoableEdit edit = e.getEdit();
+        DocumentEvent change = edit instanceof DocumentEvent ? (DocumentEvent) edit : null;
+        long now = System.currentTimeMillis();
+        long size = footprint(change);
+
+        if (change == null || !extend(change, now)) {
+            open = null;
+            Step step = new Step(change == null ? null : change.getDocument(), change == null ? null : change.getType());
+            step.edits.add(edit);
+            addEdit(step);
+            if (change != null && change.getLength() == 1) {
+                open = step;
+                open.start = change.getOffset();
+                open.end = change.getOffset() + (change.getType() == DocumentEvent.EventType.INSERT ? 1 : 0);
+                open.last = now;
+            }
+            step.bytes = size;
+        } else {
+            open.edits.add(edit);
+            open.bytes += size;
+        }
+        bytes += size;
+        trimToBudget();
+    }
+
+    /** Adds a one-char edit to the open step if it carries on the same run of typing or deleting. */
+    private boolean extend(DocumentEvent change, long now) {
+        Step step = open;
+        if (step == null || change.getLength() != 1 || change.getDocument() != step.document
+                || change.getType() != step.type || now - step.last > PAUSE_MILLIS
+                || lastEdit() != step || !step.canUndo()) {
+            return false;
+        }
+        int offset = change.getOffset();
+        if (change.getType() == DocumentEvent.EventType.INSERT) {
+            // A new word starts a new step: non-space typed right after a space
+            if (offset != step.end || (isSpace(step.document, offset - 1) && !isSpace(step.document, offset))) {
+                return false;
+            }
+            step.end++;
+        } else if (change.getType() == DocumentEvent.EventType.REMOVE) {
+            if (offset == step.start - 1) {
+                step.start--; // Backspace
+            } else if (offset != step.start) {
+                return false; // not Delete either
+            }
+        } else {
+            return false;
+        }
+        step.last = now;
+        return true;
+    }
+
+    private static boolean isSpace(Document doc, int offset) {
+        try {
+            return offset >= 0 && Character.isWhitespace(doc.getText(offset, 1).charAt(0));
+        } catch (BadLocationException e) {
+            return false;
+        }
+    }
+
+    /** Rough bytes an edit keeps alive while it is in the history. */
+    private static long footprint(DocumentEvent change) {
+        if (change == null || change.getDocument() instanceof PieceTableDocument) {
+            return EDIT_OVERHEAD;
+        }
+        return EDIT_OVERHEAD + 2L * change.getLength(); // other documents keep a copy of the text
+    }
+
+    /** Drops the oldest steps while over budget, always keeping the newest. */
+    private void trimToBudget() {
+        int drop = 0;
+        long left = bytes;
+        while (left > MAX_BYTES && drop < edits.size() - 1) {
+            left -= bytesOf(edits.get(drop));
+            drop++;
+        }
+        if (drop > 0) {
+            trimEdits(0, drop - 1);
+        }
+    }
+
+    private static long bytesOf(UndoableEdit edit) {
+        return edit instanceof Step ? ((Step) edit).bytes : EDIT_OVERHEAD;
+    }
+
+    @Override
+    public synchronized void undo() throws CannotUndoException {
+        open = null;
+        super.undo();
+    }
+
+    @Override
+    public synchronized void redo() throws CannotRedoException {
+        open = null;
+        super.redo();
+    }
+
+    @Override
+    public synchronized void discardAllEdits() {
+        open = null;
+        bytes = 0;
+        super.discardAllEdits();
+    }
+
+    @Override
+    protected void trimEdits(int from, int to) {
+        // Both the oldest steps and redo steps cut off by a new edit leave the budget
+        for (int i = from; i <= to && i < edits.size(); i++) {
+            bytes -= bytesOf(edits.get(i));
+        }
+        super.trimEdits(from, to);
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/**
+ * Base of the customlang syntax tree. Nodes are immutable and can only be
+ * created inside this package, so the set of node types is closed: a
+ * visitor that handles every {@link ASTVisitor} method handles every tree.
+ */
+public abstract class ASTNode {
+
+    ASTNode() {
+    }
+
+    public abstract <R> R accept(ASTVisitor<R> visitor);
+}
@@ -0,0 +1,22 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** Double dispatch over the closed set of {@link ASTNode} types. */
+public interface ASTVisitor<R> {
+    R visitProgram(Program node);
+    R visitVarDeclaration(VarDeclaration node);
+    R visitAssignment(Assignment node);
+    R visitPrint(PrintStmt node);
+    R visitInput(InputStmt node);
+    R visitIf(IfStmt node);
+    R visitCondition(Condition node);
+    R visitBinaryOp(BinaryOp node);
+    R visitNumber(NumberNode node);
+    R visitString(StringNode node);
+    R visitIdentifier(Identifier node);
+}
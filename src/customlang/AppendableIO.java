@@ -0,0 +1,45 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.UnaryOperator;
+
+/**
+ * An {@link Interpreter.IOCallback} that writes each PRESENT line straight
+ * into an {@link Appendable} (a {@code StringBuilder}, a {@code Writer},
+ * an output console...) so printing never has to build a String. GIVE
+ * prompts are answered by a function from prompt to input.
+ */
+public class AppendableIO implements Interpreter.IOCallback {
+    private final Appendable out;
+    private final UnaryOperator<String> input;
+
+    public AppendableIO(Appendable out, UnaryOperator<String> input) {
+        this.out = out;
+        this.input = input;
+    }
+
+    @Override
+    public void print(String text) {
+        print((CharSequence) text);
+    }
+
+    @Override
+    public void print(CharSequence text) {
+        try {
+            out.append(text).append('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String read(String prompt) {
+        return input.apply(prompt);
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** name >> value */
+public final class Assignment extends Statement {
+    final String name;
+    final int slot;
+    final Expression value;
+
+    public Assignment(String name, int slot, Expression value) {
+        this.name = name;
+        this.slot = slot;
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitAssignment(this);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.List;
+
+/**
+ * Renders a tree as indented text, one node per line, so the effect of
+ * {@link Optimizer} can be checked by eye.
+ */
+public final class AstPrinter implements ASTVisitor<Void> {
+    private final StringBuilder out = new StringBuilder();
+    private int depth = 0;
+
+    private AstPrinter() {
+    }
+
+    public static String print(ASTNode node) {
+        AstPrinter printer = new AstPrinter();
+        node.accept(printer);
+        return printer.out.toString();
+    }
+
+    private void line(String text) {
+        for (int i = 0; i < depth; i++) out.append("  ");
+        out.append(text).append('\n');
+    }
+
+    private void children(ASTNode... nodes) {
+        depth++;
+        for (ASTNode node : nodes) {
+            node.accept(this);
+        }
+        depth--;
+    }
+
+    private void block(String label, List<Statement> statements) {
+        line(label);
+        depth++;
+        for (Statement stmt : statements) {
+            stmt.accept(this);
+        }
+        depth--;
+    }
+
+    @Override
+    public Void visitProgram(Program node) {
+        block("Program (" + node.getSlotCount() + " slots)", node.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitVarDeclaration(VarDeclaration node) {
+        line("VarDeclaration " + node.name + " AS " + node.varType + " [slot " + node.slot + "]");
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(Assignment node) {
+        line("Assignment " + node.name + " [slot " + node.slot + "]");
+        children(node.value);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(PrintStmt node) {
+        line("Print");
+        children(node.value);
+        return null;
+    }
+
+    @Override
+    public Void visitInput(InputStmt node) {
+        line("Input \"" + node.prompt + "\" -> " + node.varName + " [slot " + node.slot + "]");
+        return null;
+    }
+
+    @Override
+    public Void visitIf(IfStmt node) {
+        line("If");
+        depth++;
+        node.condition.accept(this);
+        block("Then", node.thenBlock);
+        if (node.elseBlock != null) {
+            block("Else", node.elseBlock);
+        }
+        depth--;
+        return null;
+    }
+
+    @Override
+    public Void visitCondition(Condition node) {
+        line("Condition " + node.operator);
+        children(node.left, node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryOp(BinaryOp node) {
+        line("BinaryOp " + node.operator);
+        children(node.left, node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNumber(NumberNode node) {
+        line("Number " + Values.formatNumber(node.value));
+        return null;
+    }
+
+    @Override
+    public Void visitString(StringNode node) {
+        line("String \"" + node.value + "\"");
+        return null;
+    }
+
+    @Override
+    public Void visitIdentifier(Identifier node) {
+        line("Identifier " + node.name + " [slot " + node.slot + "]");
+        return null;
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** left operator right, for + - * / */
+public final class BinaryOp extends Expression {
+    final Expression left;
+    final String operator;
+    final Expression right;
+
+    public BinaryOp(Expression left, String operator, Expression right) {
+        this.left = left;
+        this.operator = operator;
+        this.right = right;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitBinaryOp(this);
+    }
+}
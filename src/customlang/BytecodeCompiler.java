@@ -0,0 +1,351 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static customlang.BytecodeProgram.*;
+
+/**
+ * Compiles a parsed {@link Program} to register bytecode for
+ * {@link BytecodeProgram}.
+ * <p>
+ * Variables use their resolved slot as their register. A first pass gives
+ * every distinct numeric literal its own register after those; the second
+ * pass emits code, using the registers above both as a stack of temporaries
+ * for intermediate results.
+ */
+public class BytecodeCompiler implements ASTVisitor<Void> {
+
+    private String[] variables;
+    private final Map<Long, Integer> numbers = new LinkedHashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+
+    private int[] code = new int[64];
+    private int size = 0;
+
+    private int nextTemp;
+    private int registerCount;
+
+    public static BytecodeProgram compile(Program program) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        compiler.variables = program.slotNames;
+        program.accept(compiler.new RegisterCollector());
+        compiler.nextTemp = compiler.registerCount = compiler.variables.length + compiler.numbers.size();
+        program.accept(compiler);
+        return compiler.finish();
+    }
+
+    private BytecodeProgram finish() {
+        double[] constants = new double[numbers.size()];
+        int i = 0;
+        for (Long bits : numbers.keySet()) {
+            constants[i++] = Double.longBitsToDouble(bits);
+        }
+        return new BytecodeProgram(Arrays.copyOf(code, size), constants,
+                strings.toArray(new String[0]), variables, registerCount);
+    }
+
+    // ----------------------
+    // Emitting
+    // ----------------------
+    private void emit(int... words) {
+        if (size + words.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+        }
+        System.arraycopy(words, 0, code, size, words.length);
+        size += words.length;
+    }
+
+    /** Offset of the operand that a later {@link #patch(int)} will point at the current end of code. */
+    private int jumpSlot() {
+        return size - 1;
+    }
+
+    private void patch(int slot) {
+        code[slot] = size;
+    }
+
+    private int number(double value) {
+        return numbers.get(Double.doubleToLongBits(value));
+    }
+
+    private int string(String value) {
+        Integer index = stringIndex.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private int allocTemp() {
+        int temp = nextTemp++;
+        registerCount = Math.max(registerCount, nextTemp);
+        return temp;
+    }
+
+    // ----------------------
+    // Statements
+    // ----------------------
+    private void block(List<Statement> statements) {
+        for (Statement stmt : statements) {
+            stmt.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitProgram(Program node) {
+        block(node.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitVarDeclaration(VarDeclaration node) {
+        emit(MOVE, node.slot, number(0));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(Assignment node) {
+        int target = node.slot;
+        int mark = nextTemp;
+        if (node.value instanceof BinaryOp) {
+            // Operands go to temporaries; only the final result lands in the variable
+            BinaryOp op = (BinaryOp) node.value;
+            int[] operands = operands(op.left, op.right);
+            emit(arithmeticOpcode(op.operator), target, operands[0], operands[1]);
+        } else {
+            emit(MOVE, target, operand(node.value));
+        }
+        nextTemp = mark;
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(PrintStmt node) {
+        if (node.value instanceof StringNode) {
+            emit(PRINTK, string(((StringNode) node.value).value));
+        } else {
+            int mark = nextTemp;
+            emit(PRINT, operand(node.value));
+            nextTemp = mark;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitInput(InputStmt node) {
+        emit(INPUT, node.slot, string(node.prompt));
+        return null;
+    }
+
+    @Override
+    public Void visitIf(IfStmt node) {
+        int elseJump = branchIfFalse(node.condition);
+        block(node.thenBlock);
+        if (node.elseBlock == null) {
+            patch(elseJump);
+            return null;
+        }
+        emit(JMP, -1);
+        int endJump = jumpSlot();
+        patch(elseJump);
+        block(node.elseBlock);
+        patch(endJump);
+        return null;
+    }
+
+    /** Emits the test and returns the jump slot to patch with the false target. */
+    private int branchIfFalse(Condition condition) {
+        int mark = nextTemp;
+        int[] operands = operands(condition.left, condition.right);
+        nextTemp = mark;
+
+        int opcode;
+        switch (condition.operator) {
+            case "==": opcode = IFNOT_EQ; break;
+            case "!=": opcode = IFNOT_NE; break;
+            case ">": opcode = IFNOT_GT; break;
+            case "<": opcode = IFNOT_LT; break;
+            case ">=": opcode = IFNOT_GE; break;
+            case "<=": opcode = IFNOT_LE; break;
+            default:
+                // Fails at run time, after both sides are evaluated, like the interpreter
+                emit(BADCMP, operands[0], operands[1], string(condition.operator));
+                emit(JMP, -1); // never reached; gives the caller a slot to patch
+                return jumpSlot();
+        }
+        emit(opcode, operands[0], operands[1], -1);
+        return jumpSlot();
+    }
+
+    // ----------------------
+    // Expressions
+    // ----------------------
+
+    /** Register holding the value of {@code node}; emits code to compute it if needed. */
+    private int operand(Expression node) {
+        if (node instanceof Identifier) return ((Identifier) node).slot;
+        if (node instanceof NumberNode) return number(((NumberNode) node).value);
+        if (node instanceof BinaryOp) {
+            BinaryOp op = (BinaryOp) node;
+            int mark = nextTemp;
+            int[] operands = operands(op.left, op.right);
+            nextTemp = mark;
+            int result = allocTemp();
+            emit(arithmeticOpcode(op.operator), result, operands[0], operands[1]);
+            return result;
+        }
+        throw new RuntimeException("Unexpected token in expression: \"" + ((StringNode) node).value + "\"");
+    }
+
+    /**
+     * Registers for both sides of a binary operation. The interpreter
+     * converts the left side to a number before it evaluates the right, so
+     * a variable on the left is checked before the right side's code runs;
+     * that keeps the first error reported the same.
+     */
+    private int[] operands(Expression left, Expression right) {
+        int l = operand(left);
+        if (left instanceof Identifier && right instanceof BinaryOp) {
+            emit(CHECK, l);
+        }
+        int r = operand(right);
+        return new int[] { l, r };
+    }
+
+    private static int arithmeticOpcode(String operator) {
+        switch (operator) {
+            case "+": return ADD;
+            case "-": return SUB;
+            case "*": return MUL;
+            case "/": return DIV;
+            default: throw new RuntimeException("Unknown operator: " + operator);
+        }
+    }
+
+    @Override
+    public Void visitCondition(Condition node) {
+        throw new IllegalStateException("Conditions are compiled by their IF");
+    }
+
+    @Override
+    public Void visitBinaryOp(BinaryOp node) {
+        throw new IllegalStateException("Expressions are compiled through operand()");
+    }
+
+    @Override
+    public Void visitNumber(NumberNode node) {
+        throw new IllegalStateException("Expressions are compiled through operand()");
+    }
+
+    @Override
+    public Void visitString(StringNode node) {
+        throw new IllegalStateException("Expressions are compiled through operand()");
+    }
+
+    @Override
+    public Void visitIdentifier(Identifier node) {
+        throw new IllegalStateException("Expressions are compiled through operand()");
+    }
+
+    // ----------------------
+    // First pass: constant registers
+    // ----------------------
+    private class RegisterCollector implements ASTVisitor<Void> {
+
+        private void addNumber(double value) {
+            Long bits = Double.doubleToLongBits(value);
+            if (!numbers.containsKey(bits)) numbers.put(bits, -1);
+        }
+
+        private void block(List<Statement> statements) {
+            for (Statement stmt : statements) {
+                stmt.accept(this);
+            }
+        }
+
+        @Override
+        public Void visitProgram(Program node) {
+            block(node.statements);
+            // Constants are numbered after all the variables
+            int reg = variables.length;
+            for (Map.Entry<Long, Integer> entry : numbers.entrySet()) {
+                entry.setValue(reg++);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVarDeclaration(VarDeclaration node) {
+            addNumber(0);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignment(Assignment node) {
+            node.value.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrint(PrintStmt node) {
+            node.value.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitInput(InputStmt node) {
+            return null;
+        }
+
+        @Override
+        public Void visitIf(IfStmt node) {
+            node.condition.accept(this);
+            block(node.thenBlock);
+            if (node.elseBlock != null) block(node.elseBlock);
+            return null;
+        }
+
+        @Override
+        public Void visitCondition(Condition node) {
+            node.left.accept(this);
+            node.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryOp(BinaryOp node) {
+            node.left.accept(this);
+            node.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitNumber(NumberNode node) {
+            addNumber(node.value);
+            return null;
+        }
+
+        @Override
+        public Void visitString(StringNode node) {
+            return null;
+        }
+
+        @Override
+        public Void visitIdentifier(Identifier node) {
+            return null;
+        }
+    }
+}
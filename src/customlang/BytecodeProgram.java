@@ -0,0 +1,202 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.Arrays;
+
+/**
+ * A customlang program compiled to register bytecode by
+ * {@link BytecodeCompiler}, together with the VM loop that runs it.
+ * <p>
+ * Instructions are an opcode followed by its operands in one {@code int[]}.
+ * Registers are split into a {@code double[]} for numbers and an
+ * {@code Object[]} that is null for numbers and holds the String otherwise,
+ * so arithmetic never boxes. The register file is laid out as variables,
+ * then numeric constants (preloaded from the constant pool), then
+ * temporaries.
+ */
+public final class BytecodeProgram implements CompiledProgram {
+
+    // ----------------------
+    // Opcodes
+    // ----------------------
+    static final int MOVE = 0;      // dst src
+    static final int ADD = 1;       // dst a b
+    static final int SUB = 2;       // dst a b
+    static final int MUL = 3;       // dst a b
+    static final int DIV = 4;       // dst a b
+    static final int PRINT = 5;     // reg
+    static final int PRINTK = 6;    // string
+    static final int INPUT = 7;     // dst prompt
+    static final int JMP = 8;       // target
+    static final int IFNOT_EQ = 9;  // a b target
+    static final int IFNOT_NE = 10; // a b target
+    static final int IFNOT_GT = 11; // a b target
+    static final int IFNOT_LT = 12; // a b target
+    static final int IFNOT_GE = 13; // a b target
+    static final int IFNOT_LE = 14; // a b target
+    static final int BADCMP = 15;   // a b operator
+    static final int CHECK = 16;    // reg: fails unless set and numeric
+
+    /** Marks a variable register that has not been assigned yet. */
+    private static final Object UNSET = new Object();
+
+    final int[] code;
+    final double[] constants;  // initial values of the constant registers
+    final String[] strings;    // string literals, prompts and operator names
+    final String[] names;      // variable names, one per variable register
+    final int registerCount;
+
+    BytecodeProgram(int[] code, double[] constants, String[] strings, String[] names, int registerCount) {
+        this.code = code;
+        this.constants = constants;
+        this.strings = strings;
+        this.names = names;
+        this.registerCount = registerCount;
+    }
+
+    @Override
+    public void run(Interpreter.IOCallback io) {
+        final int[] code = this.code;
+        final double[] num = new double[registerCount];
+        final Object[] ref = new Object[registerCount];
+        final StringBuilder line = new StringBuilder(); // reused for every numeric PRINT
+        Arrays.fill(ref, 0, names.length, UNSET);
+        System.arraycopy(constants, 0, num, names.length, constants.length);
+
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc];
+            switch (op) {
+                case MOVE: {
+                    int dst = code[pc + 1];
+                    int src = code[pc + 2];
+                    checkSet(ref, src);
+                    num[dst] = num[src];
+                    ref[dst] = ref[src];
+                    pc += 3;
+                    break;
+                }
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV: {
+                    int dst = code[pc + 1];
+                    int a = code[pc + 2];
+                    int b = code[pc + 3];
+                    double l;
+                    double r;
+                    if (ref[a] == null && ref[b] == null) {
+                        l = num[a];
+                        r = num[b];
+                    } else {
+                        l = number(num, ref, a);
+                        r = number(num, ref, b);
+                    }
+                    switch (op) {
+                        case ADD: num[dst] = l + r; break;
+                        case SUB: num[dst] = l - r; break;
+                        case MUL: num[dst] = l * r; break;
+                        default: num[dst] = l / r; break;
+                    }
+                    ref[dst] = null;
+                    pc += 4;
+                    break;
+                }
+                case IFNOT_EQ:
+                case IFNOT_NE:
+                case IFNOT_GT:
+                case IFNOT_LT:
+                case IFNOT_GE:
+                case IFNOT_LE: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    double l;
+                    double r;
+                    if (ref[a] == null && ref[b] == null) {
+                        l = num[a];
+                        r = num[b];
+                    } else {
+                        l = number(num, ref, a);
+                        r = number(num, ref, b);
+                    }
+                    boolean holds;
+                    switch (op) {
+                        case IFNOT_EQ: holds = l == r; break;
+                        case IFNOT_NE: holds = l != r; break;
+                        case IFNOT_GT: holds = l > r; break;
+                        case IFNOT_LT: holds = l < r; break;
+                        case IFNOT_GE: holds = l >= r; break;
+                        default: holds = l <= r; break;
+                    }
+                    pc = holds ? pc + 4 : code[pc + 3];
+                    break;
+                }
+                case JMP:
+                    Cancellation.check();
+                    pc = code[pc + 1];
+                    break;
+                case PRINT: {
+                    Cancellation.check();
+                    int reg = code[pc + 1];
+                    checkSet(ref, reg);
+                    Object value = ref[reg];
+                    if (value == null) {
+                        line.setLength(0);
+                        io.print(Values.appendNumber(line, num[reg]));
+                    } else {
+                        io.print(value.toString());
+                    }
+                    pc += 2;
+                    break;
+                }
+                case PRINTK:
+                    Cancellation.check();
+                    io.print(strings[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case INPUT: {
+                    Cancellation.check();
+                    int dst = code[pc + 1];
+                    Object value = Values.fromInput(io.read(strings[code[pc + 2]]));
+                    if (value instanceof Double) {
+                        num[dst] = (Double) value;
+                        ref[dst] = null;
+                    } else {
+                        ref[dst] = value;
+                    }
+                    pc += 3;
+                    break;
+                }
+                case CHECK:
+                    number(num, ref, code[pc + 1]);
+                    pc += 2;
+                    break;
+                case BADCMP: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    Values.compare(strings[code[pc + 3]], number(num, ref, a), number(num, ref, b));
+                    throw new IllegalStateException("Comparison operator was not rejected");
+                }
+                default:
+                    throw new IllegalStateException("Bad opcode " + op + " at " + pc);
+            }
+        }
+    }
+
+    private void checkSet(Object[] ref, int reg) {
+        if (ref[reg] == UNSET) {
+            throw new RuntimeException("Variable not found: " + names[reg]);
+        }
+    }
+
+    private double number(double[] num, Object[] ref, int reg) {
+        Object value = ref[reg];
+        if (value == null) return num[reg];
+        checkSet(ref, reg);
+        return Values.toNumber(value);
+    }
+}
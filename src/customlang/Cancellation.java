@@ -0,0 +1,26 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative stop for running programs. Every backend calls
+ * {@link #check()} between statements, so interrupting the thread that
+ * runs a program stops it at the next statement.
+ */
+public final class Cancellation {
+
+    private Cancellation() {
+    }
+
+    /** Throws CancellationException if the current thread has been interrupted. */
+    public static void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Stopped");
+        }
+    }
+}
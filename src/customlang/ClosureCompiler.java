@@ -0,0 +1,209 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.List;
+
+/**
+ * Turns a parsed {@link Program} into a tree of closures. All dispatch on
+ * node type and operator happens here, once; running the result only
+ * calls straight through pre-bound children.
+ * <p>
+ * Slots that {@link TypeInference} proves numeric, and every arithmetic
+ * expression, are compiled to {@link NumEval} closures that pass unboxed
+ * doubles around. The boxed {@link Eval} path is only used where a value
+ * can really be a string.
+ */
+public class ClosureCompiler implements ASTVisitor<Object> {
+
+    interface Exec {
+        void execute(Frame frame);
+    }
+
+    interface Eval {
+        Object evaluate(Frame frame);
+    }
+
+    interface NumEval {
+        double evaluate(Frame frame);
+    }
+
+    interface Test {
+        boolean test(Frame frame);
+    }
+
+    private final ValueType[] types;
+
+    private ClosureCompiler(ValueType[] types) {
+        this.types = types;
+    }
+
+    public static CompiledProgram compile(Program program) {
+        final Exec[] body = new ClosureCompiler(TypeInference.infer(program)).block(program.statements);
+        final String[] names = program.slotNames;
+        return io -> runBlock(body, new Frame(io, names));
+    }
+
+    private static void runBlock(Exec[] block, Frame frame) {
+        for (Exec stmt : block) {
+            Cancellation.check();
+            stmt.execute(frame);
+        }
+    }
+
+    private boolean isNumeric(int slot) {
+        return types[slot] == ValueType.NUMBER;
+    }
+
+    // ----------------------
+    // Statements
+    // ----------------------
+    private Exec[] block(List<Statement> statements) {
+        Exec[] block = new Exec[statements.size()];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (Exec) statements.get(i).accept(this);
+        }
+        return block;
+    }
+
+    @Override
+    public Object visitProgram(Program node) {
+        throw new IllegalStateException("Program is compiled with compile()");
+    }
+
+    @Override
+    public Object visitVarDeclaration(VarDeclaration node) {
+        final int slot = node.slot;
+        if (isNumeric(slot)) {
+            return (Exec) frame -> frame.nums[slot] = 0;
+        }
+        final Integer zero = 0;
+        return (Exec) frame -> frame.slots[slot] = zero;
+    }
+
+    @Override
+    public Object visitAssignment(Assignment node) {
+        final int slot = node.slot;
+        if (isNumeric(slot)) {
+            final NumEval value = numeric(node.value);
+            return (Exec) frame -> frame.nums[slot] = value.evaluate(frame);
+        }
+        final Eval value = generic(node.value);
+        return (Exec) frame -> frame.slots[slot] = value.evaluate(frame);
+    }
+
+    @Override
+    public Object visitPrint(PrintStmt node) {
+        if (node.value instanceof StringNode) {
+            final String text = ((StringNode) node.value).value;
+            return (Exec) frame -> frame.io.print(text);
+        }
+        Object value = node.value.accept(this);
+        if (value instanceof NumEval) {
+            final NumEval number = (NumEval) value;
+            return (Exec) frame -> frame.printNumber(number.evaluate(frame));
+        }
+        final Eval generic = (Eval) value;
+        return (Exec) frame -> frame.printValue(generic.evaluate(frame));
+    }
+
+    @Override
+    public Object visitInput(InputStmt node) {
+        // Input can be a number or a string, so its slot is never numeric
+        final String prompt = node.prompt;
+        final int slot = node.slot;
+        return (Exec) frame -> frame.slots[slot] = Values.fromInput(frame.io.read(prompt));
+    }
+
+    @Override
+    public Object visitIf(IfStmt node) {
+        final Test condition = (Test) node.condition.accept(this);
+        final Exec[] thenBlock = block(node.thenBlock);
+        if (node.elseBlock == null) {
+            return (Exec) frame -> {
+                if (condition.test(frame)) runBlock(thenBlock, frame);
+            };
+        }
+        final Exec[] elseBlock = block(node.elseBlock);
+        return (Exec) frame -> runBlock(condition.test(frame) ? thenBlock : elseBlock, frame);
+    }
+
+    // ----------------------
+    // Expressions
+    // ----------------------
+
+    /** The expression as an unboxed number, converting a generic value if needed. */
+    private NumEval numeric(Expression node) {
+        Object value = node.accept(this);
+        if (value instanceof NumEval) return (NumEval) value;
+        final Eval generic = (Eval) value;
+        return frame -> Values.toNumber(generic.evaluate(frame));
+    }
+
+    /** The expression as a boxed value, boxing a numeric result if needed. */
+    private Eval generic(Expression node) {
+        if (node instanceof NumberNode) {
+            final Double constant = ((NumberNode) node).value;
+            return frame -> constant;
+        }
+        Object value = node.accept(this);
+        if (value instanceof Eval) return (Eval) value;
+        final NumEval number = (NumEval) value;
+        return frame -> Values.box(number.evaluate(frame));
+    }
+
+    @Override
+    public Object visitCondition(Condition node) {
+        final NumEval l = numeric(node.left);
+        final NumEval r = numeric(node.right);
+        switch (node.operator) {
+            case "==": return (Test) f -> l.evaluate(f) == r.evaluate(f);
+            case "!=": return (Test) f -> l.evaluate(f) != r.evaluate(f);
+            case ">": return (Test) f -> l.evaluate(f) > r.evaluate(f);
+            case "<": return (Test) f -> l.evaluate(f) < r.evaluate(f);
+            case ">=": return (Test) f -> l.evaluate(f) >= r.evaluate(f);
+            case "<=": return (Test) f -> l.evaluate(f) <= r.evaluate(f);
+            default:
+                // Still evaluate both sides first, so errors surface in the same order as the interpreter
+                final String operator = node.operator;
+                return (Test) f -> Values.compare(operator, l.evaluate(f), r.evaluate(f));
+        }
+    }
+
+    @Override
+    public Object visitBinaryOp(BinaryOp node) {
+        final NumEval l = numeric(node.left);
+        final NumEval r = numeric(node.right);
+        switch (node.operator) {
+            case "+": return (NumEval) f -> l.evaluate(f) + r.evaluate(f);
+            case "-": return (NumEval) f -> l.evaluate(f) - r.evaluate(f);
+            case "*": return (NumEval) f -> l.evaluate(f) * r.evaluate(f);
+            case "/": return (NumEval) f -> l.evaluate(f) / r.evaluate(f);
+            default: throw new RuntimeException("Unknown operator: " + node.operator);
+        }
+    }
+
+    @Override
+    public Object visitNumber(NumberNode node) {
+        final double value = node.value;
+        return (NumEval) frame -> value;
+    }
+
+    @Override
+    public Object visitString(StringNode node) {
+        final String value = node.value;
+        return (Eval) frame -> value;
+    }
+
+    @Override
+    public Object visitIdentifier(Identifier node) {
+        final int slot = node.slot;
+        if (isNumeric(slot)) {
+            return (NumEval) frame -> frame.getNumber(slot);
+        }
+        return (Eval) frame -> frame.get(slot);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled programs by the SHA-256 of their source, the engine and whether
+ * they were optimized, so running unchanged source again (from any file)
+ * skips lexing, parsing and compiling. One compiled program serves every
+ * run of its source. Most engines keep nothing between runs; the
+ * specializing and tiered ones keep what they learned (slot kinds seen,
+ * run counts, a promoted class), which changes how fast a later run is
+ * but not what it does.
+ * <p>
+ * Least recently used entries are dropped once the estimated size of
+ * everything cached passes the budget. Safe to use from several threads.
+ */
+public final class CompileCache {
+    public static final long DEFAULT_BUDGET = 32L * 1024 * 1024;
+
+    // Rough heap per source char for the tree and compiled form, plus a fixed cost per entry
+    private static final int BYTES_PER_CHAR = 16;
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static final class Key {
+        final byte[] hash;
+        final Engine engine;
+        final boolean optimized;
+
+        Key(byte[] hash, Engine engine, boolean optimized) {
+            this.hash = hash;
+            this.engine = engine;
+            this.optimized = optimized;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return engine == other.engine && optimized == other.optimized && Arrays.equals(hash, other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Arrays.hashCode(hash) * 31 + engine.hashCode()) * 2 + (optimized ? 1 : 0);
+        }
+    }
+
+    /** A compiled program, and whether it came from the cache. */
+    public static final class Result {
+        public final CompiledProgram program;
+        public final boolean cached;
+
+        Result(CompiledProgram program, boolean cached) {
+            this.program = program;
+            this.cached = cached;
+        }
+    }
+
+    private static final class Cached {
+        final CompiledProgram program;
+        final long size;
+
+        Cached(CompiledProgram program, long size) {
+            this.program = program;
+            this.size = size;
+        }
+    }
+
+    private final long budget;
+    private final LinkedHashMap<Key, Cached> entries = new LinkedHashMap<>(16, 0.75f, true); // guarded by this
+    private long size;
+    private long hits;
+    private long misses;
+
+    public CompileCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * The compiled program for {@code source}, compiled now if it is not
+     * cached. Source that does not parse throws as {@link Parser#parse()}
+     * does and is not cached.
+     */
+    public Result compile(String source, Engine engine, boolean optimize) {
+        Key key = new Key(sha256(source), engine, optimize);
+        synchronized (this) {
+            Cached cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return new Result(cached.program, true);
+            }
+            misses++;
+        }
+
+        // Compiled outside the lock; two threads missing on the same source both compile, and the later one wins
+        Program ast = new Parser(new Tokenizer(source)).parse();
+        if (optimize) {
+            ast = Optimizer.optimize(ast);
+        }
+        CompiledProgram program = engine.compile(ast);
+        long bytes = ENTRY_OVERHEAD + (long) BYTES_PER_CHAR * source.length();
+
+        synchronized (this) {
+            Cached replaced = entries.put(key, new Cached(program, bytes));
+            if (replaced != null) size -= replaced.size;
+            size += bytes;
+            // Drop the oldest, always keeping the newest
+            Iterator<Map.Entry<Key, Cached>> oldest = entries.entrySet().iterator();
+            while (size > budget && entries.size() > 1) {
+                size -= oldest.next().getValue().size;
+                oldest.remove();
+            }
+        }
+        return new Result(program, false);
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /** SHA-256 of the source's UTF-8 encoding. */
+    static byte[] sha256(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+}
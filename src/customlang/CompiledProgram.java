@@ -0,0 +1,16 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+/**
+ * A program that has been compiled once and can be run any number of
+ * times. Every run starts with fresh variables, and a run stops with a
+ * {@code CancellationException} soon after its thread is interrupted.
+ */
+public interface CompiledProgram {
+
+    void run(Interpreter.IOCallback io);
+}
@@ -0,0 +1,38 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+/** A problem found in the source, with the span of text it is about. */
+public final class Diagnostic {
+    private final int start;
+    private final int end;
+    private final String message;
+
+    public Diagnostic(int start, int end, String message) {
+        this.start = start;
+        this.end = end;
+        this.message = message;
+    }
+
+    /** Source offset of the first char the problem is about. */
+    public int getStart() {
+        return start;
+    }
+
+    /** Source offset just past the span; equal to the start for a missing token at the end. */
+    public int getEnd() {
+        return end;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end + ": " + message;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+/** The execution backends a parsed program can be run on. */
+public enum Engine {
+    /** Walks the AST on every run ({@link Interpreter}). */
+    INTERPRETER("Interpreter") {
+        @Override
+        public CompiledProgram compile(Program program) {
+            return io -> new Interpreter(io).run(program);
+        }
+    },
+
+    /** Pre-resolved closure tree ({@link ClosureCompiler}). */
+    CLOSURE("Closure tree") {
+        @Override
+        public CompiledProgram compile(Program program) {
+            return ClosureCompiler.compile(program);
+        }
+    },
+
+    /** Register bytecode ({@link BytecodeCompiler}). */
+    BYTECODE("Bytecode VM") {
+        @Override
+        public CompiledProgram compile(Program program) {
+            return BytecodeCompiler.compile(program);
+        }
+    },
+
+    /** Nodes that rewrite themselves for the types they see ({@link SpecializingCompiler}). */
+    SPECIALIZING("Self-specializing") {
+        @Override
+        public CompiledProgram compile(Program program) {
+            return SpecializingCompiler.compile(program);
+        }
+    },
+
+    /** Closure tree that moves hot programs to a generated JVM class ({@link TieredProgram}). */
+    TIERED("Tiered (JVM bytecode)") {
+        @Override
+        public CompiledProgram compile(Program program) {
+            return new TieredProgram(program);
+        }
+    };
+
+    private final String displayName;
+
+    Engine(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public abstract CompiledProgram compile(Program program);
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
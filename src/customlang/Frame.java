@@ -0,0 +1,64 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.Arrays;
+
+/**
+ * Run-time state of one execution of a compiled program. Slots that type
+ * inference proved numeric live unboxed in {@link #nums}; all others hold
+ * their boxed value in {@link #slots}.
+ */
+final class Frame {
+    /** Bit pattern of a numeric slot that has not been assigned yet (a quiet NaN with a payload arithmetic never produces). */
+    static final long UNSET = 0x7ff8_0000_dead_beefL;
+
+    final Object[] slots;
+    final double[] nums;
+    final Interpreter.IOCallback io;
+    private final StringBuilder line = new StringBuilder(); // reused for every PRESENT
+    private final String[] names;
+
+    Frame(Interpreter.IOCallback io, String[] names) {
+        this.io = io;
+        this.names = names;
+        this.slots = new Object[names.length];
+        this.nums = new double[names.length];
+        Arrays.fill(nums, Double.longBitsToDouble(UNSET));
+    }
+
+    Object get(int slot) {
+        Object value = slots[slot];
+        if (value == null) {
+            throw notFound(slot);
+        }
+        return value;
+    }
+
+    double getNumber(int slot) {
+        double value = nums[slot];
+        if (Double.doubleToRawLongBits(value) == UNSET) {
+            throw notFound(slot);
+        }
+        return value;
+    }
+
+    /** Prints a number through the frame's reusable line buffer. */
+    void printNumber(double value) {
+        line.setLength(0);
+        io.print(Values.appendNumber(line, value));
+    }
+
+    /** Prints any value through the frame's reusable line buffer. */
+    void printValue(Object value) {
+        line.setLength(0);
+        io.print(Values.appendValue(line, value));
+    }
+
+    private RuntimeException notFound(int slot) {
+        return new RuntimeException("Variable not found: " + names[slot]);
+    }
+}
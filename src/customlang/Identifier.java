@@ -0,0 +1,23 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** Variable reference */
+public final class Identifier extends Expression {
+    final String name;
+    final int slot;
+
+    public Identifier(String name, int slot) {
+        this.name = name;
+        this.slot = slot;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitIdentifier(this);
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IF (condition) THEN ... [OR ELSE (condition) THEN ...] [OR ...] STOP
+ * <p>
+ * Each OR ELSE arm is an IfStmt without an else block, placed in the else
+ * block of the enclosing IF; a plain OR replaces the else block.
+ */
+public final class IfStmt extends Statement {
+    final Condition condition;
+    final List<Statement> thenBlock;
+    final List<Statement> elseBlock; // null when there is no OR / OR ELSE
+
+    public IfStmt(Condition condition, List<Statement> thenBlock, List<Statement> elseBlock) {
+        this.condition = condition;
+        this.thenBlock = Collections.unmodifiableList(thenBlock);
+        this.elseBlock = elseBlock == null ? null : Collections.unmodifiableList(elseBlock);
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitIf(this);
+    }
+}
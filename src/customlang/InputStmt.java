@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** GIVE "prompt" GET varName */
+public final class InputStmt extends Statement {
+    final String prompt;
+    final String varName;
+    final int slot;
+
+    public InputStmt(String prompt, String varName, int slot) {
+        this.prompt = prompt;
+        this.varName = varName;
+        this.slot = slot;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitInput(this);
+    }
+}
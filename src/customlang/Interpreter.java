@@ -5,14 +5,16 @@
  */
 package customlang;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-public class Interpreter {
+public class Interpreter implements ASTVisitor<Object> {
 
-    private Map<String, Object> variables = new HashMap<>();
+    private static final Integer ZERO = 0;
+
+    private Object[] variables; // indexed by resolved slot
+    private String[] names;
     private IOCallback io;
+    private final StringBuilder line = new StringBuilder(); // reused for every PRESENT
 
     // ----------------------
     // Constructor
@@ -27,185 +29,120 @@ public class Interpreter {
     public interface IOCallback {
         void print(String text);
         String read(String prompt);
+
+        /**
+         * Prints a line held in a reusable buffer. The caller may change
+         * {@code text} as soon as this returns, so it must be copied, not
+         * kept. Callbacks that can copy characters straight into their
+         * output override this to skip building a String per line.
+         */
+        default void print(CharSequence text) {
+            print(text.toString());
+        }
     }
 
     // ----------------------
     // Run the program
     // ----------------------
-    public void run(Map<String, Object> program) {
-        List<Map<String, Object>> statements = (List<Map<String, Object>>) program.get("statements");
-        for (Map<String, Object> stmt : statements) {
-            execute(stmt);
+    public void run(Program program) {
+        variables = new Object[program.getSlotCount()];
+        names = program.slotNames;
+        program.accept(this);
+    }
+
+    @Override
+    public Object visitProgram(Program node) {
+        executeBlock(node.statements);
+        return null;
+    }
+
+    private void executeBlock(List<Statement> statements) {
+        for (Statement stmt : statements) {
+            Cancellation.check();
+            stmt.accept(this);
         }
     }
 
     // ----------------------
     // Execute a statement
     // ----------------------
-    private void execute(Map<String, Object> node) {
-        String type = (String) node.get("type");
-
-        switch (type) {
-            case "VarDeclaration":
-                executeVarDeclaration(node);
-                break;
-            case "Assignment":
-                executeAssignment(node);
-                break;
-            case "Print":
-                executePrint(node);
-                break;
-            case "Input":
-                executeInput(node);
-                break;
-            case "If":
-                executeIf(node);
-                break;
-            default:
-                throw new RuntimeException("Unknown statement type: " + type);
-        }
-    }
-
-    private void executeVarDeclaration(Map<String, Object> node) {
-        String name = (String) node.get("name");
-        variables.put(name, 0);
+    @Override
+    public Object visitVarDeclaration(VarDeclaration node) {
+        variables[node.slot] = ZERO;
+        return null;
     }
 
-    private void executeAssignment(Map<String, Object> node) {
-        String name = (String) node.get("name");
-        Map<String, Object> valueNode = (Map<String, Object>) node.get("value");
-        Object value = evaluate(valueNode);
-        variables.put(name, value);
+    @Override
+    public Object visitAssignment(Assignment node) {
+        Object value = node.value.accept(this);
+        variables[node.slot] = value;
+        return null;
     }
 
-    private void executePrint(Map<String, Object> node) {
-    Map<String, Object> valueNode = (Map<String, Object>) node.get("value");
-    Object value = evaluate(valueNode);
-    if (value instanceof Double && ((Double) value) % 1 == 0) {
-        value = ((Double) value).intValue();
+    @Override
+    public Object visitPrint(PrintStmt node) {
+        Object value = node.value.accept(this);
+        line.setLength(0);
+        io.print(Values.appendValue(line, value));
+        return null;
     }
 
-    io.print(value.toString());
-}
-
-
-    private void executeInput(Map<String, Object> node) {
-        String prompt = (String) node.get("prompt");
-        String varName = (String) node.get("varName");
-
-        String input = io.read(prompt);
-
-        try {
-            variables.put(varName, Double.parseDouble(input));
-        } catch (NumberFormatException e) {
-            variables.put(varName, input);
-        }
+    @Override
+    public Object visitInput(InputStmt node) {
+        String input = io.read(node.prompt);
+        variables[node.slot] = Values.fromInput(input);
+        return null;
     }
 
-    private void executeIf(Map<String, Object> node) {
-        Map<String, Object> condition = (Map<String, Object>) node.get("condition");
-        boolean result = evaluateCondition(condition);
-
-        if (result) {
-            List<Map<String, Object>> thenBlock = (List<Map<String, Object>>) node.get("thenBlock");
-            for (Map<String, Object> stmt : thenBlock) {
-                execute(stmt);
-            }
-        } else {
-            List<Map<String, Object>> elseBlock = (List<Map<String, Object>>) node.get("elseBlock");
-            if (elseBlock != null) {
-                for (Map<String, Object> stmt : elseBlock) {
-                    execute(stmt);
-                }
-            }
+    @Override
+    public Object visitIf(IfStmt node) {
+        if (evaluateCondition(node.condition)) {
+            executeBlock(node.thenBlock);
+        } else if (node.elseBlock != null) {
+            executeBlock(node.elseBlock);
         }
+        return null;
     }
 
     // ----------------------
     // Evaluate expressions
     // ----------------------
-    private Object evaluate(Map<String, Object> node) {
-        String type = (String) node.get("type");
-
-        switch (type) {
-            case "Number":
-    Object val = node.get("value");
-    if (val instanceof String) {
-        return Double.parseDouble((String) val); // convert string to number
-    } else if (val instanceof Number) {
-        return ((Number) val).doubleValue(); // handle Integer/Double
-    } else {
-        throw new RuntimeException("Invalid number value: " + val);
-    }
-
-            case "String":
-                return node.get("value");
-            case "Identifier":
-                String name = (String) node.get("name");
-                if (!variables.containsKey(name)) {
-                    throw new RuntimeException("Variable not found: " + name);
-                }
-                return variables.get(name);
-            case "BinaryOp":
-                return evaluateBinaryOp(node);
-            default:
-                throw new RuntimeException("Unknown node type: " + type);
-        }
+    @Override
+    public Object visitNumber(NumberNode node) {
+        return node.value;
     }
 
-    private Object evaluateBinaryOp(Map<String, Object> node) {
-    String operator = (String) node.get("operator");
-    Map<String, Object> leftNode = (Map<String, Object>) node.get("left");
-    Map<String, Object> rightNode = (Map<String, Object>) node.get("right");
+    @Override
+    public Object visitString(StringNode node) {
+        return node.value;
+    }
 
-    double left = toNumber(evaluate(leftNode));
-    double right = toNumber(evaluate(rightNode));
+    @Override
+    public Object visitIdentifier(Identifier node) {
+        Object value = variables[node.slot];
+        if (value == null) {
+            throw new RuntimeException("Variable not found: " + names[node.slot]);
+        }
+        return value;
+    }
 
-    double result;
+    @Override
+    public Object visitBinaryOp(BinaryOp node) {
+        double left = Values.toNumber(node.left.accept(this));
+        double right = Values.toNumber(node.right.accept(this));
 
-    switch (operator) {
-        case "+": result = left + right; break;
-        case "-": result = left - right; break;
-        case "*": result = left * right; break;
-        case "/": result = left / right; break;
-        default: throw new RuntimeException("Unknown operator: " + operator);
+        return Values.box(Values.arithmetic(node.operator, left, right));
     }
-    if (result == (int) result) {
-        return (int) result;
-    }
-    return result;
-}
 
-    private boolean evaluateCondition(Map<String, Object> node) {
-        String operator = (String) node.get("operator");
-        Map<String, Object> leftNode = (Map<String, Object>) node.get("left");
-        Map<String, Object> rightNode = (Map<String, Object>) node.get("right");
-
-        double left = toNumber(evaluate(leftNode));
-        double right = toNumber(evaluate(rightNode));
-
-        switch (operator) {
-            case "==": return left == right;
-            case "!=": return left != right;
-            case ">": return left > right;
-            case "<": return left < right;
-            case ">=": return left >= right;
-            case "<=": return left <= right;
-            default: throw new RuntimeException("Unknown condition operator: " + operator);
-        }
+    @Override
+    public Object visitCondition(Condition node) {
+        return evaluateCondition(node);
     }
 
-    private double toNumber(Object value) {
-    if (value instanceof Number) {
-        return ((Number) value).doubleValue();
-    }
-    if (value instanceof String) {
-        try {
-            return Double.parseDouble(((String) value).trim());
-        } catch (NumberFormatException e) {
-            throw new RuntimeException("Cannot convert to number: " + value);
-        }
+    private boolean evaluateCondition(Condition node) {
+        double left = Values.toNumber(node.left.accept(this));
+        double right = Values.toNumber(node.right.accept(this));
+
+        return Values.compare(node.operator, left, right);
     }
-    throw new RuntimeException("Cannot convert to number: " + value);
 }
-}
\ No newline at end of file
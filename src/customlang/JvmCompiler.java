@@ -0,0 +1,395 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Translates a program into Java source for one class implementing
+ * {@link CompiledProgram}, compiles it in memory with the JDK's
+ * {@code javax.tools} compiler, and loads it in a class loader of its own
+ * so the class can be unloaded with the program.
+ * <p>
+ * Variables become local variables of {@code run}: slots that
+ * {@link TypeInference} proves numeric are {@code double} locals, the rest
+ * are {@code Object}. All conversion and printing goes through
+ * {@link Values}, so output matches {@link Interpreter} exactly.
+ */
+public class JvmCompiler implements ASTVisitor<String> {
+
+    static final String CLASS_NAME = "CustomlangProgram";
+
+    private final ValueType[] types;
+    private final String[] names;
+    private final StringBuilder out = new StringBuilder();
+    private int indent = 2;
+
+    private JvmCompiler(Program program) {
+        this.types = TypeInference.infer(program);
+        this.names = program.slotNames;
+    }
+
+    /** True when a system Java compiler is available (a JDK rather than a bare JRE). */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Compiles and loads {@code program}. Throws IllegalStateException if
+     * there is no system compiler or javac rejects the generated source
+     * (for example a script too large for one method).
+     */
+    public static CompiledProgram compile(Program program) {
+        String source = generate(program);
+        byte[] bytes = javac(source);
+        try {
+            Class<?> type = new ProgramLoader(bytes).loadClass(CLASS_NAME);
+            return (CompiledProgram) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load generated program", e);
+        }
+    }
+
+    /** The Java source {@link #compile(Program)} feeds to javac. */
+    public static String generate(Program program) {
+        JvmCompiler generator = new JvmCompiler(program);
+        return generator.emitClass(program.statements);
+    }
+
+    // ----------------------
+    // Class layout
+    // ----------------------
+    private String emitClass(List<Statement> statements) {
+        out.append("public final class ").append(CLASS_NAME).append(" implements customlang.CompiledProgram {\n");
+        out.append("  private static final long UNSET = 0x").append(Long.toHexString(Frame.UNSET)).append("L;\n");
+        out.append("  private static final Integer ZERO = 0;\n\n");
+        out.append("  @Override\n");
+        out.append("  public void run(customlang.Interpreter.IOCallback io) {\n");
+        line("StringBuilder line = new StringBuilder();");
+        for (int slot = 0; slot < types.length; slot++) {
+            if (isNumeric(slot)) {
+                line("double " + local(slot) + " = Double.longBitsToDouble(UNSET);");
+            } else {
+                line("Object " + local(slot) + " = null;");
+            }
+        }
+        block(statements);
+        out.append("  }\n\n");
+        out.append("  private static double num(double value, String name) {\n");
+        out.append("    if (Double.doubleToRawLongBits(value) == UNSET) throw notFound(name);\n");
+        out.append("    return value;\n");
+        out.append("  }\n\n");
+        out.append("  private static Object ref(Object value, String name) {\n");
+        out.append("    if (value == null) throw notFound(name);\n");
+        out.append("    return value;\n");
+        out.append("  }\n\n");
+        out.append("  private static RuntimeException notFound(String name) {\n");
+        out.append("    return new RuntimeException(\"Variable not found: \" + name);\n");
+        out.append("  }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private void line(String code) {
+        for (int i = 0; i < indent; i++) out.append("  ");
+        out.append(code).append('\n');
+    }
+
+    private boolean isNumeric(int slot) {
+        return types[slot] == ValueType.NUMBER;
+    }
+
+    private boolean isNumeric(Expression node) {
+        return TypeInference.typeOf(node, types) == ValueType.NUMBER;
+    }
+
+    private static String local(int slot) {
+        return "v" + slot;
+    }
+
+    /**
+     * A Java string literal for {@code text}; everything outside printable
+     * ASCII is escaped. Control chars get short or octal escapes, never
+     * unicode ones: javac translates unicode escapes before it lexes, so a
+     * newline written that way would end the line inside the literal.
+     */
+    static String literal(String text) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\%03o", (int) c));
+                    else if (c < 0x7f) sb.append(c);
+                    else sb.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // ----------------------
+    // Statements
+    // ----------------------
+    private void block(List<Statement> statements) {
+        for (Statement stmt : statements) {
+            line("customlang.Cancellation.check();");
+            stmt.accept(this);
+        }
+    }
+
+    @Override
+    public String visitProgram(Program node) {
+        throw new IllegalStateException("Program is compiled with compile()");
+    }
+
+    @Override
+    public String visitVarDeclaration(VarDeclaration node) {
+        line(local(node.slot) + (isNumeric(node.slot) ? " = 0;" : " = ZERO;"));
+        return null;
+    }
+
+    @Override
+    public String visitAssignment(Assignment node) {
+        String value = isNumeric(node.slot) ? numeric(node.value) : generic(node.value);
+        line(local(node.slot) + " = " + value + ";");
+        return null;
+    }
+
+    @Override
+    public String visitPrint(PrintStmt node) {
+        if (node.value instanceof StringNode) {
+            line("io.print(" + literal(((StringNode) node.value).value) + ");");
+        } else if (isNumeric(node.value)) {
+            line("line.setLength(0);");
+            line("io.print(customlang.Values.appendNumber(line, " + numeric(node.value) + "));");
+        } else {
+            line("line.setLength(0);");
+            line("io.print(customlang.Values.appendValue(line, " + generic(node.value) + "));");
+        }
+        return null;
+    }
+
+    @Override
+    public String visitInput(InputStmt node) {
+        line(local(node.slot) + " = customlang.Values.fromInput(io.read(" + literal(node.prompt) + "));");
+        return null;
+    }
+
+    @Override
+    public String visitIf(IfStmt node) {
+        line("if (" + node.condition.accept(this) + ") {");
+        indent++;
+        block(node.thenBlock);
+        indent--;
+        if (node.elseBlock != null) {
+            line("} else {");
+            indent++;
+            block(node.elseBlock);
+            indent--;
+        }
+        line("}");
+        return null;
+    }
+
+    // ----------------------
+    // Expressions
+    // ----------------------
+
+    /**
+     * A {@code double} expression. Java evaluates operands left to right,
+     * so the left side is converted before the right is evaluated, just as
+     * in the interpreter.
+     */
+    private String numeric(Expression node) {
+        String code = node.accept(this);
+        return isNumeric(node) ? code : "customlang.Values.toNumber(" + code + ")";
+    }
+
+    /** An {@code Object} expression. */
+    private String generic(Expression node) {
+        if (node instanceof NumberNode) return "Double.valueOf(" + node.accept(this) + ")";
+        String code = node.accept(this);
+        return isNumeric(node) ? "customlang.Values.box(" + code + ")" : code;
+    }
+
+    @Override
+    public String visitCondition(Condition node) {
+        String l = numeric(node.left);
+        String r = numeric(node.right);
+        switch (node.operator) {
+            case "==":
+            case "!=":
+            case ">":
+            case "<":
+            case ">=":
+            case "<=":
+                return "(" + l + " " + node.operator + " " + r + ")";
+            default:
+                return "customlang.Values.compare(" + literal(node.operator) + ", " + l + ", " + r + ")";
+        }
+    }
+
+    @Override
+    public String visitBinaryOp(BinaryOp node) {
+        switch (node.operator) {
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+                return "(" + numeric(node.left) + " " + node.operator + " " + numeric(node.right) + ")";
+            default:
+                throw new RuntimeException("Unknown operator: " + node.operator);
+        }
+    }
+
+    @Override
+    public String visitNumber(NumberNode node) {
+        // Folded constants can be infinite or NaN, which have no literal
+        double value = node.value;
+        if (Double.isNaN(value)) return "Double.NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        String literal = Double.toString(value);
+        return literal.startsWith("-") ? "(" + literal + ")" : literal;
+    }
+
+    @Override
+    public String visitString(StringNode node) {
+        return literal(node.value);
+    }
+
+    @Override
+    public String visitIdentifier(Identifier node) {
+        String name = literal(names[node.slot]);
+        if (isNumeric(node.slot)) {
+            return "num(" + local(node.slot) + ", " + name + ")";
+        }
+        return "ref(" + local(node.slot) + ", " + name + ")";
+    }
+
+    // ----------------------
+    // In-memory javac
+    // ----------------------
+    private static byte[] javac(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler (running on a JRE?)");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+        // Closing it closes the standard manager too, with the jars and caches it opened
+        try (ClassOutput output = new ClassOutput(standard)) {
+            List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-proc:none");
+            StringWriter log = new StringWriter();
+            boolean ok = compiler.getTask(log, output, diagnostics, options, null,
+                    Arrays.asList(new SourceInput(source))).call();
+            if (!ok || output.bytes == null) {
+                throw new IllegalStateException("javac rejected the generated program: " + diagnostics.getDiagnostics() + log);
+            }
+            return output.bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot close the compiler's files", e);
+        }
+    }
+
+    /** Where the customlang classes themselves were loaded from, so the generated code can see them. */
+    private static String classPath() {
+        CodeSource source = CompiledProgram.class.getProtectionDomain().getCodeSource();
+        if (source != null) {
+            try {
+                return new File(source.getLocation().toURI()).getPath();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // fall back to the launch class path
+            }
+        }
+        return System.getProperty("java.class.path");
+    }
+
+    private static final class SourceInput extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceInput(String source) {
+            super(URI.create("string:///" + CLASS_NAME + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static final class ClassOutput extends ForwardingJavaFileManager<JavaFileManager> {
+        ByteArrayOutputStream bytes;
+
+        ClassOutput(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    bytes = new ByteArrayOutputStream();
+                    return bytes;
+                }
+            };
+        }
+    }
+
+    /** One loader per program, so its class goes away with it. */
+    private static final class ProgramLoader extends ClassLoader {
+        private final byte[] bytes;
+
+        ProgramLoader(byte[] bytes) {
+            super(CompiledProgram.class.getClassLoader());
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (!CLASS_NAME.equals(name)) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
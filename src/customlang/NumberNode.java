@@ -0,0 +1,21 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** Numeric literal */
+public final class NumberNode extends Expression {
+    final double value;
+
+    public NumberNode(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitNumber(this);
+    }
+}
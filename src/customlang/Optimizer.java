@@ -0,0 +1,151 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Optional pass between {@link Parser#parse()} and compilation. Folds
+ * arithmetic and comparisons whose operands are all literals, and replaces
+ * an IF with a constant condition by the branch that will run. The result
+ * is a new tree; the input is left untouched, and every backend runs it
+ * with the same output as the original.
+ * <p>
+ * Nothing that can fail at run time is folded: variables are never
+ * assumed, and a comparison with an unknown operator is kept so it still
+ * reports its error when it runs.
+ */
+public final class Optimizer implements ASTVisitor<Object> {
+
+    private Optimizer() {
+    }
+
+    public static Program optimize(Program program) {
+        return new Optimizer().visitProgram(program);
+    }
+
+    // ----------------------
+    // Statements
+    // ----------------------
+    private List<Statement> block(List<Statement> statements) {
+        List<Statement> result = new ArrayList<>(statements.size());
+        for (Statement stmt : statements) {
+            Object optimized = stmt.accept(this);
+            if (optimized instanceof Statement) {
+                result.add((Statement) optimized);
+            } else {
+                // A pruned IF: splice in the branch that always runs
+                @SuppressWarnings("unchecked")
+                List<Statement> branch = (List<Statement>) optimized;
+                result.addAll(branch);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Program visitProgram(Program node) {
+        return new Program(block(node.statements), node.slotNames);
+    }
+
+    @Override
+    public Object visitVarDeclaration(VarDeclaration node) {
+        return node;
+    }
+
+    @Override
+    public Object visitAssignment(Assignment node) {
+        Expression value = expression(node.value);
+        return value == node.value ? node : new Assignment(node.name, node.slot, value);
+    }
+
+    @Override
+    public Object visitPrint(PrintStmt node) {
+        Expression value = expression(node.value);
+        return value == node.value ? node : new PrintStmt(value);
+    }
+
+    @Override
+    public Object visitInput(InputStmt node) {
+        return node;
+    }
+
+    /** Returns an IfStmt, or the statements of the only branch that can run. */
+    @Override
+    public Object visitIf(IfStmt node) {
+        Condition condition = (Condition) node.condition.accept(this);
+        if (condition.left instanceof NumberNode && condition.right instanceof NumberNode
+                && isKnownComparison(condition.operator)) {
+            double l = ((NumberNode) condition.left).value;
+            double r = ((NumberNode) condition.right).value;
+            if (Values.compare(condition.operator, l, r)) {
+                return block(node.thenBlock);
+            }
+            return node.elseBlock == null ? Collections.<Statement>emptyList() : block(node.elseBlock);
+        }
+        List<Statement> elseBlock = node.elseBlock == null ? null : block(node.elseBlock);
+        return new IfStmt(condition, block(node.thenBlock), elseBlock);
+    }
+
+    private static boolean isKnownComparison(String operator) {
+        switch (operator) {
+            case "==":
+            case "!=":
+            case ">":
+            case "<":
+            case ">=":
+            case "<=":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ----------------------
+    // Expressions
+    // ----------------------
+    private Expression expression(Expression node) {
+        return (Expression) node.accept(this);
+    }
+
+    @Override
+    public Object visitCondition(Condition node) {
+        Expression left = expression(node.left);
+        Expression right = expression(node.right);
+        if (left == node.left && right == node.right) return node;
+        return new Condition(left, node.operator, right);
+    }
+
+    @Override
+    public Object visitBinaryOp(BinaryOp node) {
+        Expression left = expression(node.left);
+        Expression right = expression(node.right);
+        if (left instanceof NumberNode && right instanceof NumberNode) {
+            double l = ((NumberNode) left).value;
+            double r = ((NumberNode) right).value;
+            return new NumberNode(Values.arithmetic(node.operator, l, r));
+        }
+        if (left == node.left && right == node.right) return node;
+        return new BinaryOp(left, node.operator, right);
+    }
+
+    @Override
+    public Object visitNumber(NumberNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitString(StringNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitIdentifier(Identifier node) {
+        return node;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A program parsed in recovery mode, kept so that it can be re-parsed
+ * after an edit without starting over. Per top-level statement it holds
+ * the node, the token span, the errors and the variables read and
+ * written; {@link #edit(String, int, int, int)} re-lexes from just before
+ * the edit until the tokens line up with the old ones again, re-parses
+ * from the statement before the edit until the parse is back on an old
+ * statement boundary past it, and splices the old statements back in
+ * from there. Only the unresolved-variable check looks at every
+ * statement, and that is a pass over a few ints each.
+ * <p>
+ * Trees are immutable, so an edit abandoned halfway (the thread was
+ * interrupted) leaves the tree it started from intact.
+ */
+public final class ParseTree {
+    private final String text;
+    private final TokenList tokens;
+    private final boolean begun;            // the tokens start with BEGIN; if not, every edit parses afresh
+    private final List<Diagnostic> header;  // the missing BEGIN
+    private final int count;                // top-level statements; the arrays below may be longer
+    private final Statement[] statements;   // null for one with an error
+    private final int[] firsts;             // first token of each statement
+    private final int[] ends;               // token just past each statement
+    private final Diagnostic[][] errors;    // each statement's errors, offsets relative to its first char
+    private final int[][] uses;             // each statement's writes (slot, -1) and reads (slot, relative offset)
+    private final List<Diagnostic> trailer; // after the last statement: the closing STOP
+    private final String[] names;
+    private final int reparsed;
+    private List<Diagnostic> diagnostics;   // computed on demand
+
+    private ParseTree(String text, TokenList tokens, boolean begun, List<Diagnostic> header, Builder built,
+            List<Diagnostic> trailer, String[] names) {
+        this.text = text;
+        this.tokens = tokens;
+        this.begun = begun;
+        this.header = header;
+        this.count = built.count;
+        this.statements = built.statements;
+        this.firsts = built.firsts;
+        this.ends = built.ends;
+        this.errors = built.errors;
+        this.uses = built.uses;
+        this.trailer = trailer;
+        this.names = names;
+        this.reparsed = built.parsed;
+    }
+
+    /** Parses {@code text} from scratch. */
+    public static ParseTree parse(String text) {
+        TokenList tokens = new Tokenizer(text).tokenize();
+        Resolver resolver = new Resolver();
+        resolver.logging = true;
+        Parser parser = new Parser(tokens.cursor(0), 0, resolver);
+        parser.recover();
+        parser.begin();
+        List<Diagnostic> header = new ArrayList<>(parser.diagnostics());
+
+        Builder built = new Builder(Math.max(16, tokens.size() / 4));
+        while (!parser.atEnd()) {
+            built.parse(parser, resolver, tokens);
+        }
+        Cancellation.check();
+        return new ParseTree(text, tokens, header.isEmpty(), header, built, closing(parser), resolver.names());
+    }
+
+    /** Re-parses for {@code newText}, finding what was edited by comparing it with this tree's text. */
+    public ParseTree edit(String newText) {
+        int limit = Math.min(text.length(), newText.length());
+        int prefix = 0;
+        while (prefix < limit && text.charAt(prefix) == newText.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && text.charAt(text.length() - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix)) {
+            suffix++;
+        }
+        if (prefix == text.length() && prefix == newText.length()) return this;
+        return edit(newText, prefix, text.length() - prefix - suffix, newText.length() - prefix - suffix);
+    }
+
+    /**
+     * Re-parses after {@code removed} chars at {@code offset} were replaced
+     * by {@code inserted} chars, giving {@code newText}.
+     */
+    public ParseTree edit(String newText, int offset, int removed, int inserted) {
+        if (!begun || offset <= tokens.end(0)) {
+            return parse(newText); // the edit touches BEGIN
+        }
+        int delta = inserted - removed;
+
+        // Restart at a statement that ends before the edit and whose extent nothing after it can change
+        int first = Math.max(reaching(offset) - 1, 0);
+        while (first > 0 && !settled(first)) first--;
+        int from = count == 0 ? 1 : firsts[first];
+
+        // Re-lex from the end of the token before it, until a token starts where an old one (moved) did
+        // past the edit: the text from there on is the same, so are the tokens
+        TokenList lexed = new TokenList(newText, tokens.size() + 16);
+        lexed.addAll(tokens, 0, from, 0);
+        Tokenizer lexer = new Tokenizer(newText, tokens.end(from - 1));
+        int resync = Integer.MAX_VALUE; // new index of the first token kept from the old list
+        int shift = 0;                  // new index minus old index from there on
+        int old = from;
+        TokenType kind;
+        while ((kind = lexer.nextToken()) != TokenType.EOF) {
+            int start = lexer.tokenStart();
+            if (start >= offset + inserted) {
+                while (old < tokens.size() && tokens.start(old) + delta < start) old++;
+                if (old < tokens.size() && tokens.start(old) + delta == start) {
+                    resync = lexed.size();
+                    shift = resync - old;
+                    lexed.addAll(tokens, old, tokens.size(), delta);
+                    break;
+                }
+            }
+            lexed.add(kind, start, lexer.tokenEnd());
+        }
+
+        // Re-parse until the parser stands on an old statement boundary among the kept tokens
+        Resolver resolver = new Resolver(names); // same slots for the statements kept
+        resolver.logging = true;
+        Parser parser = new Parser(lexed.cursor(from), from, resolver);
+        parser.recover();
+        Builder built = new Builder(count + 16);
+        built.copy(this, 0, first, 0);
+        int next = first;
+        int reuse = -1;
+        while (!parser.atEnd()) {
+            int at = parser.position();
+            if (at >= resync) {
+                while (next < count && firsts[next] + shift < at) next++;
+                if (next < count && firsts[next] + shift == at) {
+                    reuse = next;
+                    break;
+                }
+            }
+            built.parse(parser, resolver, lexed);
+        }
+        Cancellation.check();
+
+        List<Diagnostic> closing;
+        if (reuse >= 0) {
+            built.copy(this, reuse, count, shift);
+            closing = new ArrayList<>();
+            for (Diagnostic diagnostic : trailer) {
+                closing.add(moved(diagnostic, delta));
+            }
+        } else {
+            closing = closing(parser);
+        }
+        return new ParseTree(newText, lexed, true, header, built, closing, resolver.names());
+    }
+
+    /** The first statement that ends at or after {@code offset} (the count if none does). */
+    private int reaching(int offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.end(ends[mid] - 1) < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /** Whether statement {@code i - 1} would end where it does whatever came after statement {@code i}. */
+    private boolean settled(int i) {
+        if (tokens.kind(ends[i - 1] - 1) == TokenType.OR) return false; // may merge with an ELSE typed later
+        // Skipping an error stops at a statement start, which looks one token ahead
+        return statements[i - 1] != null || ends[i] - firsts[i] > 1;
+    }
+
+    private static List<Diagnostic> closing(Parser parser) {
+        int reported = parser.diagnostics().size();
+        parser.end();
+        return new ArrayList<>(parser.diagnostics().subList(reported, parser.diagnostics().size()));
+    }
+
+    private static Diagnostic moved(Diagnostic diagnostic, int by) {
+        return new Diagnostic(diagnostic.getStart() + by, diagnostic.getEnd() + by, diagnostic.getMessage());
+    }
+
+    // ----------------------
+    // Results
+    // ----------------------
+    public String text() {
+        return text;
+    }
+
+    public TokenList tokens() {
+        return tokens;
+    }
+
+    /** Top-level statements parsed to make this tree (all of them for a fresh parse). */
+    public int reparsed() {
+        return reparsed;
+    }
+
+    /** Every error, in source order, as {@link Parser#diagnose()} reports them. */
+    public List<Diagnostic> diagnostics() {
+        if (diagnostics == null) {
+            List<Diagnostic> found = new ArrayList<>(header);
+            for (int i = 0; i < count; i++) {
+                if (errors[i].length == 0) continue;
+                int start = tokens.start(firsts[i]);
+                for (Diagnostic error : errors[i]) {
+                    found.add(moved(error, start));
+                }
+            }
+            found.addAll(trailer);
+            for (Diagnostic unresolved : unresolved()) {
+                int i = found.size();
+                while (i > 0 && found.get(i - 1).getStart() > unresolved.getStart()) i--;
+                found.add(i, unresolved);
+            }
+            diagnostics = Collections.unmodifiableList(found);
+        }
+        return diagnostics;
+    }
+
+    /**
+     * The program, or null while it has errors. Slots are kept across
+     * edits, so the frame may have a few for names no statement uses any
+     * more.
+     */
+    public Program program() {
+        return diagnostics().isEmpty() ? new Program(Arrays.asList(statements).subList(0, count), names) : null;
+    }
+
+    private List<Diagnostic> unresolved() {
+        BitSet written = new BitSet();
+        for (int s = 0; s < count; s++) {
+            int[] use = uses[s];
+            for (int i = 0; i < use.length; i += 2) {
+                if (use[i + 1] < 0) written.set(use[i]);
+            }
+        }
+        List<Diagnostic> found = new ArrayList<>();
+        BitSet reported = new BitSet();
+        for (int s = 0; s < count; s++) {
+            int[] use = uses[s];
+            for (int i = 0; i < use.length; i += 2) {
+                int slot = use[i];
+                if (use[i + 1] >= 0 && !written.get(slot) && !reported.get(slot)) {
+                    reported.set(slot);
+                    int at = tokens.start(firsts[s]) + use[i + 1];
+                    found.add(new Diagnostic(at, at + names[slot].length(), "Variable not found: " + names[slot]));
+                }
+            }
+        }
+        return found;
+    }
+
+    // ----------------------
+    // Building
+    // ----------------------
+
+    /** The statements of a tree being made. */
+    private static final class Builder {
+        private static final Diagnostic[] NO_ERRORS = new Diagnostic[0];
+
+        Statement[] statements;
+        int[] firsts;
+        int[] ends;
+        Diagnostic[][] errors;
+        int[][] uses;
+        int count;
+        int parsed;
+
+        Builder(int capacity) {
+            statements = new Statement[capacity];
+            firsts = new int[capacity];
+            ends = new int[capacity];
+            errors = new Diagnostic[capacity][];
+            uses = new int[capacity][];
+        }
+
+        private void grow(int needed) {
+            if (needed <= firsts.length) return;
+            int capacity = Math.max(needed, firsts.length + (firsts.length >> 1) + 1);
+            statements = Arrays.copyOf(statements, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            errors = Arrays.copyOf(errors, capacity);
+            uses = Arrays.copyOf(uses, capacity);
+        }
+
+        /** Statements {@code from} to {@code to} of {@code tree}, with token indexes moved by {@code shift}. */
+        void copy(ParseTree tree, int from, int to, int shift) {
+            int n = to - from;
+            grow(count + n);
+            System.arraycopy(tree.statements, from, statements, count, n);
+            System.arraycopy(tree.errors, from, errors, count, n);
+            System.arraycopy(tree.uses, from, uses, count, n);
+            for (int i = 0; i < n; i++) {
+                firsts[count + i] = tree.firsts[from + i] + shift;
+                ends[count + i] = tree.ends[from + i] + shift;
+            }
+            count += n;
+        }
+
+        /** Parses the statement at the parser's position. */
+        void parse(Parser parser, Resolver resolver, TokenList tokens) {
+            int first = parser.position();
+            int start = tokens.start(first);
+            int reported = parser.diagnostics().size();
+            int logged = resolver.logged;
+            Statement statement = parser.statement();
+
+            grow(count + 1);
+            statements[count] = statement;
+            firsts[count] = first;
+            ends[count] = parser.position();
+
+            List<Diagnostic> found = parser.diagnostics();
+            Diagnostic[] own = found.size() == reported ? NO_ERRORS : new Diagnostic[found.size() - reported];
+            for (int i = 0; i < own.length; i++) {
+                own[i] = moved(found.get(reported + i), -start);
+            }
+            errors[count] = own;
+
+            int[] use = Arrays.copyOfRange(resolver.log, logged, resolver.logged);
+            for (int i = 1; i < use.length; i += 2) {
+                if (use[i] >= 0) use[i] -= start;
+            }
+            uses[count] = use;
+            count++;
+            parsed++;
+        }
+    }
+}
@@ -11,255 +11,419 @@ package customlang;
  */
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Recursive-descent parser for customlang. {@link #parse()} stops at the
+ * first syntax error; {@link #diagnose()} instead recovers at the next
+ * statement and reports every error in one pass, for the editor.
+ * {@link ParseTree} drives it one top-level statement at a time to
+ * re-parse just what an edit touched.
+ */
 public class Parser {
-    private List<String> tokens;
-    private int pos = 0;
+    private TokenSource tokens;
+    private final Resolver resolver;
+
+    // Two-token lookahead window pulled from the token source
+    private TokenType current;
+    private String currentText;
+    private TokenType following;
+    private String followingText;
+    private int currentStart, currentEnd;
+    private int followingStart, followingEnd;
+    private int position; // index of the current token in the source
+
+    private List<Diagnostic> diagnostics; // non-null in recovery mode
+
+    /** A syntax error, with the span of the token it was found at. */
+    private static final class SyntaxError extends RuntimeException {
+        final int start;
+        final int end;
+
+        SyntaxError(String message, int start, int end) {
+            super(message);
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public Parser(TokenList tokens) {
+        this(tokens.cursor(0));
+    }
+
+    public Parser(TokenSource tokens) {
+        this(tokens, 0, new Resolver());
+    }
 
-    public Parser(List<String> tokens) {
+    /** Parses from token {@code position} of the source, naming variables with {@code resolver}. */
+    Parser(TokenSource tokens, int position, Resolver resolver) {
         this.tokens = tokens;
+        this.resolver = resolver;
+        this.position = position - 1;
+        following = tokens.nextToken();
+        followingText = textOf(following);
+        followingStart = tokens.tokenStart();
+        followingEnd = tokens.tokenEnd();
+        advance();
     }
 
-    private String current() {
-        if (pos < tokens.size()) return tokens.get(pos);
-        return "";
+    private String textOf(TokenType kind) {
+        String fixed = kind.text();
+        return fixed != null ? fixed : tokens.tokenText();
+    }
+
+    private void advance() {
+        if (current != TokenType.EOF) position++;
+        current = following;
+        currentText = followingText;
+        currentStart = followingStart;
+        currentEnd = followingEnd;
+        if (following != TokenType.EOF) {
+            following = tokens.nextToken();
+            followingText = textOf(following);
+            followingStart = tokens.tokenStart();
+            followingEnd = tokens.tokenEnd();
+        }
+    }
+
+    private TokenType current() {
+        return current;
+    }
+
+    private String currentText() {
+        return currentText;
     }
 
     private String next() {
-        String token = current();
-        pos++;
+        String token = currentText;
+        advance();
         return token;
     }
 
-    private void expect(String expected) {
-        String token = next();
-        if (!token.equals(expected)) {
-            throw new RuntimeException("Expected '" + expected + "' but got '" + token + "'");
+    private void expect(TokenType expected) {
+        if (current != expected) {
+            throw error("Expected '" + expected.text() + "' but got '" + currentText + "'");
         }
+        advance();
+    }
+
+    /** An error at the current token. */
+    private SyntaxError error(String message) {
+        return new SyntaxError(message, currentStart, currentEnd);
+    }
+
+    private TokenType peekNext() {
+        return following;
     }
 
-    private String peekNext() {
-        if (pos + 1 < tokens.size()) return tokens.get(pos + 1);
-        return "";
+    private String stringValue() {
+        String text = next();
+        return text.substring(1, Tokenizer.stringContentEnd(text, 0, text.length()));
     }
 
-    public Map<String, Object> parse() {
-        expect("BEGIN");
-        List<Map<String, Object>> statements = new ArrayList<>();
-        while (!current().equals("STOP")) {
-            statements.add(parseStatement());
+    public Program parse() {
+        begin();
+        List<Statement> statements = new ArrayList<>();
+        while (!atEnd()) {
+            statements.add(statement());
         }
-        expect("STOP");
+        expect(TokenType.STOP);
+        if (diagnostics == null) resolver.check(); // diagnose() reports them all instead
 
-        Map<String, Object> program = new HashMap<>();
-        program.put("type", "Program");
-        program.put("statements", statements);
-        return program;
+        return new Program(statements, resolver.names());
     }
 
-    private Map<String, Object> parseStatement() {
-        String token = current();
+    /**
+     * Parses in recovery mode and returns every error found, in source
+     * order (empty for a valid program). A statement with an error is
+     * skipped up to the start of the next statement or the end of its
+     * block, and parsing carries on from there. Stops early, returning
+     * what it has, if the thread is interrupted.
+     */
+    public List<Diagnostic> diagnose() {
+        diagnostics = new ArrayList<>();
+        try {
+            parse();
+        } catch (SyntaxError e) {
+            report(e); // missing STOP
+        }
+        if (!Thread.currentThread().isInterrupted()) {
+            for (Diagnostic unresolved : resolver.unresolved()) {
+                insert(unresolved);
+            }
+        }
+        return diagnostics;
+    }
+
+    // ----------------------
+    // Top level, for ParseTree
+    // ----------------------
+
+    /** Switches to recovery mode. */
+    void recover() {
+        diagnostics = new ArrayList<>();
+    }
+
+    /** Errors reported so far in recovery mode. */
+    List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
 
-        if (token.equals("THIS")) return parseVarDeclaration();
-        else if (token.equals("PRESENT")) return parsePrint();
-        else if (token.equals("GIVE")) return parseInput();
-        else if (token.equals("IF")) return parseIf();
-        else if (isIdentifier(token) && peekNext().equals(">>")) return parseAssignment();
+    int position() {
+        return position;
+    }
+
+    void begin() {
+        if (diagnostics != null && current != TokenType.BEGIN) {
+            report(error("Expected 'BEGIN' but got '" + currentText + "'")); // check the statements anyway
+        } else {
+            expect(TokenType.BEGIN);
+        }
+    }
 
-        throw new RuntimeException("Unexpected token: " + token);
+    /** Whether the top-level statements are over. */
+    boolean atEnd() {
+        return current == TokenType.STOP || outOfTokens();
     }
 
-    private Map<String, Object> parseVarDeclaration() {
-        expect("THIS");
+    /** The closing STOP, in recovery mode. */
+    void end() {
+        try {
+            expect(TokenType.STOP);
+        } catch (SyntaxError e) {
+            report(e);
+        }
+    }
+
+    // ----------------------
+    // Error recovery
+    // ----------------------
+
+    /** Whether recovery mode has used up the tokens (and with them every open block). */
+    private boolean outOfTokens() {
+        return diagnostics != null && (current == TokenType.EOF || Thread.currentThread().isInterrupted());
+    }
+
+    /** A statement; in recovery mode, null for one with an error, which is reported and skipped. */
+    Statement statement() {
+        if (diagnostics == null) return parseStatement();
+        int start = currentStart;
+        try {
+            return parseStatement();
+        } catch (SyntaxError e) {
+            report(e);
+            if (currentStart == start && current != TokenType.EOF) {
+                advance(); // nothing was consumed: skip the offending token so parsing moves on
+            }
+            while (!startsStatement() && !endsBlock(current) && current != TokenType.EOF) {
+                advance();
+            }
+            return null;
+        }
+    }
+
+    private boolean startsStatement() {
+        return current == TokenType.THIS || current == TokenType.PRESENT || current == TokenType.GIVE
+                || current == TokenType.IF || (current.isWord() && following == TokenType.ASSIGN);
+    }
+
+    private void report(SyntaxError e) {
+        // A missing STOP at the end is found by each enclosing block in turn; keep one
+        Diagnostic last = diagnostics.isEmpty() ? null : diagnostics.get(diagnostics.size() - 1);
+        if (last == null || last.getStart() != e.start || !last.getMessage().equals(e.getMessage())) {
+            diagnostics.add(new Diagnostic(e.start, e.end, e.getMessage()));
+        }
+    }
+
+    private void insert(Diagnostic diagnostic) {
+        int i = diagnostics.size();
+        while (i > 0 && diagnostics.get(i - 1).getStart() > diagnostic.getStart()) i--;
+        diagnostics.add(i, diagnostic);
+    }
+
+    private Statement parseStatement() {
+        TokenType token = current();
+
+        if (token == TokenType.THIS) return parseVarDeclaration();
+        else if (token == TokenType.PRESENT) return parsePrint();
+        else if (token == TokenType.GIVE) return parseInput();
+        else if (token == TokenType.IF) return parseIf();
+        else if (token.isWord() && peekNext() == TokenType.ASSIGN) return parseAssignment();
+
+        throw error("Unexpected token: " + currentText());
+    }
+
+    private VarDeclaration parseVarDeclaration() {
+        expect(TokenType.THIS);
         String name = next();
-        expect("AS");
+        expect(TokenType.AS);
         String type = next();
 
-        Map<String, Object> node = new HashMap<>();
-        node.put("type", "VarDeclaration");
-        node.put("name", name);
-        node.put("varType", type);
-        return node;
+        return new VarDeclaration(name, type, resolver.write(name));
     }
 
-    private Map<String, Object> parseAssignment() {
+    private Assignment parseAssignment() {
         String name = next();
-        expect(">>");
-        Map<String, Object> value = parseExpression();
-
-        Map<String, Object> node = new HashMap<>();
-        node.put("type", "Assignment");
-        node.put("name", name);
-        node.put("value", value);
-        return node;
-    }
-
-    private Map<String, Object> parsePrint() {
-        expect("PRESENT");
-        Map<String, Object> value;
-        if (current().startsWith("\"")) {
-            String str = next();
-            value = new HashMap<>();
-            value.put("type", "String");
-            value.put("value", str.substring(1, str.length() - 1));
+        int slot = resolver.write(name);
+        expect(TokenType.ASSIGN);
+        Expression value = parseExpression();
+
+        return new Assignment(name, slot, value);
+    }
+
+    private PrintStmt parsePrint() {
+        expect(TokenType.PRESENT);
+        Expression value;
+        if (current() == TokenType.STRING) {
+            value = new StringNode(stringValue());
         } else {
             value = parseExpression();
         }
 
-        Map<String, Object> node = new HashMap<>();
-        node.put("type", "Print");
-        node.put("value", value);
-        return node;
+        return new PrintStmt(value);
     }
 
-    private Map<String, Object> parseInput() {
-        expect("GIVE");
-        String prompt = next();
-        expect("GET");
+    private InputStmt parseInput() {
+        expect(TokenType.GIVE);
+        String prompt = parsePrompt();
+        expect(TokenType.GET);
         String varName = next();
 
-        Map<String, Object> node = new HashMap<>();
-        node.put("type", "Input");
-        node.put("prompt", prompt.substring(1, prompt.length() - 1));
-        node.put("varName", varName);
-        return node;
+        return new InputStmt(prompt, varName, resolver.write(varName));
     }
 
-    private Map<String, Object> parseIf() {
-    expect("IF");
-    expect("(");
-    Map<String, Object> condition = parseCondition();
-    expect(")");
-    expect("THEN");
-
-    List<Map<String, Object>> thenBlock = new ArrayList<>();
-    while (!current().equals("OR") && !current().equals("OR ELSE") && !current().equals("STOP")) {
-        thenBlock.add(parseStatement());
-    }
+    private IfStmt parseIf() {
+        expect(TokenType.IF);
+        Condition condition = header();
 
-    List<Map<String, Object>> elseBlock = null;
+        List<Statement> thenBlock = new ArrayList<>();
+        while (!endsBlock(current()) && !outOfTokens()) {
+            thenBlock.add(statement());
+        }
 
-    while (current().equals("OR") || current().equals("OR ELSE")) {
-        String token = next(); // consume the token
+        List<Statement> elseBlock = null;
 
-        if (token.equals("OR ELSE")) {
-            expect("(");
-            Map<String, Object> elifCondition = parseCondition();
-            expect(")");
-            expect("THEN");
+        while (current() == TokenType.OR || current() == TokenType.OR_ELSE) {
+            TokenType token = current();
+            advance(); // consume the token
 
-            List<Map<String, Object>> elifBlock = new ArrayList<>();
-            while (!current().equals("OR") && !current().equals("OR ELSE") && !current().equals("STOP")) {
-                elifBlock.add(parseStatement());
-            }
+            if (token == TokenType.OR_ELSE) {
+                Condition elifCondition = header();
 
-            Map<String, Object> elifNode = new HashMap<>();
-            elifNode.put("type", "If");
-            elifNode.put("condition", elifCondition);
-            elifNode.put("thenBlock", elifBlock);
-            elifNode.put("elseBlock", null);
+                List<Statement> elifBlock = new ArrayList<>();
+                while (!endsBlock(current()) && !outOfTokens()) {
+                    elifBlock.add(statement());
+                }
 
-            if (elseBlock == null) elseBlock = new ArrayList<>();
-            elseBlock.add(elifNode);
+                if (elseBlock == null) elseBlock = new ArrayList<>();
+                elseBlock.add(new IfStmt(elifCondition, elifBlock, null));
 
-        } else if (token.equals("OR")) { // default else
-            elseBlock = new ArrayList<>();
-            while (!current().equals("STOP")) {
-                elseBlock.add(parseStatement());
+            } else { // default else
+                elseBlock = new ArrayList<>();
+                while (current() != TokenType.STOP && !outOfTokens()) {
+                    elseBlock.add(statement());
+                }
             }
         }
-    }
 
-    expect("STOP");
+        expect(TokenType.STOP);
 
-    Map<String, Object> node = new HashMap<>();
-    node.put("type", "If");
-    node.put("condition", condition);
-    node.put("thenBlock", thenBlock);
-    node.put("elseBlock", elseBlock);
+        return new IfStmt(condition, thenBlock, elseBlock);
+    }
 
-    return node;
-}
+    /**
+     * {@code ( condition ) THEN}. In recovery mode an error here is
+     * reported and skipped up to THEN, so the block is still parsed as
+     * one and its STOP closes it.
+     */
+    private Condition header() {
+        if (diagnostics == null) return parseHeader();
+        try {
+            return parseHeader();
+        } catch (SyntaxError e) {
+            report(e);
+            while (current != TokenType.THEN && !startsStatement() && !endsBlock(current) && current != TokenType.EOF) {
+                advance();
+            }
+            if (current == TokenType.THEN) advance();
+            return null;
+        }
+    }
 
+    private Condition parseHeader() {
+        expect(TokenType.LPAREN);
+        Condition condition = parseCondition();
+        expect(TokenType.RPAREN);
+        expect(TokenType.THEN);
+        return condition;
+    }
 
-    private Map<String, Object> parseCondition() {
-        Map<String, Object> left = parseExpression();
+    private Condition parseCondition() {
+        Expression left = parseExpression();
         String operator = next();
-        Map<String, Object> right = parseExpression();
+        Expression right = parseExpression();
 
-        Map<String, Object> node = new HashMap<>();
-        node.put("type", "Condition");
-        node.put("left", left);
-        node.put("operator", operator);
-        node.put("right", right);
-        return node;
+        return new Condition(left, operator, right);
     }
 
     // ---------------- EXPRESSION PARSING ----------------
-    private Map<String, Object> parseExpression() {
-        Map<String, Object> left = parseTerm();
-        while (current().equals("+") || current().equals("-")) {
+    private Expression parseExpression() {
+        Expression left = parseTerm();
+        while (current() == TokenType.PLUS || current() == TokenType.MINUS) {
             String op = next();
-            Map<String, Object> right = parseTerm();
-            Map<String, Object> node = new HashMap<>();
-            node.put("type", "BinaryOp");
-            node.put("operator", op);
-            node.put("left", left);
-            node.put("right", right);
-            left = node;
+            Expression right = parseTerm();
+            left = new BinaryOp(left, op, right);
         }
         return left;
     }
 
-    private Map<String, Object> parseTerm() {
-        Map<String, Object> left = parseFactor();
-        while (current().equals("*") || current().equals("/")) {
+    private Expression parseTerm() {
+        Expression left = parseFactor();
+        while (current() == TokenType.MULTIPLY || current() == TokenType.DIVIDE) {
             String op = next();
-            Map<String, Object> right = parseFactor();
-            Map<String, Object> node = new HashMap<>();
-            node.put("type", "BinaryOp");
-            node.put("operator", op);
-            node.put("left", left);
-            node.put("right", right);
-            left = node;
+            Expression right = parseFactor();
+            left = new BinaryOp(left, op, right);
         }
         return left;
     }
 
-    private Map<String, Object> parseFactor() {
-        String token = current();
-        if (token.equals("(")) {
-            next();
-            Map<String, Object> expr = parseExpression();
-            expect(")");
+    private Expression parseFactor() {
+        TokenType token = current();
+        if (token == TokenType.LPAREN) {
+            advance();
+            Expression expr = parseExpression();
+            expect(TokenType.RPAREN);
             return expr;
         }
-        if (isNumber(token)) {
-            next();
-            Map<String, Object> node = new HashMap<>();
-            node.put("type", "Number");
-            node.put("value", Double.parseDouble(token));
-            return node;
+        if (token == TokenType.NUMBER) {
+            return new NumberNode(parseNumber());
         }
-        if (isIdentifier(token)) {
-            next();
-            Map<String, Object> node = new HashMap<>();
-            node.put("type", "Identifier");
-            node.put("name", token);
-            return node;
+        if (token.isWord()) {
+            int at = currentStart;
+            String name = next();
+            return new Identifier(name, resolver.read(name, at));
         }
-        throw new RuntimeException("Unexpected token in expression: " + token);
+        throw error("Unexpected token in expression: " + currentText());
     }
 
-    private boolean isNumber(String s) {
-        try { Double.parseDouble(s); return true; } 
-        catch (NumberFormatException e) { return false; }
+    private String parsePrompt() {
+        if (current() != TokenType.STRING) {
+            throw error("Expected a quoted prompt but got '" + currentText() + "'");
+        }
+        return stringValue();
+    }
+
+    private double parseNumber() {
+        try {
+            double value = Double.parseDouble(currentText());
+            advance();
+            return value;
+        } catch (NumberFormatException e) {
+            throw error("Unexpected token in expression: " + currentText());
+        }
     }
 
-    private boolean isIdentifier(String s) {
-        return s.length() > 0 && Character.isLetter(s.charAt(0));
+    private boolean endsBlock(TokenType token) {
+        return token == TokenType.OR || token == TokenType.OR_ELSE || token == TokenType.STOP;
     }
 }
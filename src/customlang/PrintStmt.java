@@ -0,0 +1,21 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** PRESENT value */
+public final class PrintStmt extends Statement {
+    final Expression value;
+
+    public PrintStmt(Expression value) {
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitPrint(this);
+    }
+}
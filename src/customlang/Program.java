@@ -0,0 +1,34 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.Collections;
+import java.util.List;
+
+/** BEGIN ... STOP */
+public final class Program extends ASTNode {
+    final List<Statement> statements;
+    final String[] slotNames; // variable name for each frame slot
+
+    public Program(List<Statement> statements, String[] slotNames) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.slotNames = slotNames;
+    }
+
+    public List<Statement> getStatements() {
+        return statements;
+    }
+
+    /** Number of variable slots a frame for this program needs. */
+    public int getSlotCount() {
+        return slotNames.length;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitProgram(this);
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Precompiled programs on disk: a {@code .slgc} file next to the source
+ * holds its resolved (and optionally optimized) tree, so a fresh JVM can
+ * go straight to compiling it for an engine without lexing or parsing.
+ * The compiled forms themselves (closures, generated classes) only exist
+ * in memory; compiling a tree is quick next to parsing it.
+ * <p>
+ * Layout, big-endian: magic {@code SLGC}, format version, SHA-256 of the
+ * source's UTF-8 encoding, optimized flag, body length and CRC32, then the
+ * body: a string table (every name, operator and literal once, in UTF-8),
+ * the slot names, and the statements in prefix order, each node a tag byte
+ * followed by its fields. Counts, slots and string references are
+ * variable-length ints, seven bits a byte. A file with a different
+ * version, hash or flag, or that fails its CRC or does not decode, is
+ * ignored and rewritten.
+ */
+public final class ProgramFile {
+    public static final String EXTENSION = ".slgc";
+
+    static final int VERSION = 1;
+    private static final int MAGIC = 0x534C4743; // "SLGC"
+    private static final int HEADER = 4 + 4 + 32 + 1 + 4 + 4;
+
+    // Node tags
+    private static final byte VAR = 1;
+    private static final byte ASSIGN = 2;
+    private static final byte PRINT = 3;
+    private static final byte INPUT = 4;
+    private static final byte IF = 5;
+    private static final byte BINARY = 10;
+    private static final byte NUMBER = 11;
+    private static final byte STRING = 12;
+    private static final byte IDENTIFIER = 13;
+    private static final byte WHOLE_NUMBER = 14; // a non-negative int value, as a variable-length int
+
+    private ProgramFile() {
+    }
+
+    /** The precompiled file for {@code source}: the same name with the extension {@code .slgc}. */
+    public static Path beside(Path source) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return source.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+    }
+
+    /**
+     * The tree for {@code source}, the text of {@code file}: read from the
+     * file's {@code .slgc} when that was made from this exact text, parsed
+     * (and optimized if asked) otherwise, in which case the {@code .slgc}
+     * is rewritten if it can be. Source that does not parse throws as
+     * {@link Parser#parse()} does.
+     */
+    public static Program load(Path file, String source, boolean optimize) {
+        Path compiled = beside(file);
+        byte[] hash = CompileCache.sha256(source);
+        Program program = read(compiled, hash, optimize);
+        if (program != null) return program;
+
+        program = new Parser(new Tokenizer(source)).parse();
+        if (optimize) {
+            program = Optimizer.optimize(program);
+        }
+        try {
+            write(compiled, hash, optimize, program);
+        } catch (IOException e) {
+            // Read-only directory and the like: just compile every time
+        }
+        return program;
+    }
+
+    /** The tree in {@code file} if it is a valid precompiled file for this source hash and flag, else null. */
+    public static Program read(Path file, byte[] hash, boolean optimized) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) return null;
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (bytes.getInt() != MAGIC || bytes.getInt() != VERSION) return null;
+            byte[] stored = new byte[32];
+            bytes.get(stored);
+            if (!Arrays.equals(stored, hash) || bytes.get() != (optimized ? 1 : 0)) return null;
+            int length = bytes.getInt();
+            int crc = bytes.getInt();
+            if (length != bytes.remaining()) return null;
+            CRC32 check = new CRC32();
+            check.update(bytes.duplicate());
+            if ((int) check.getValue() != crc) return null;
+            return new Reader(bytes).program();
+        } catch (IOException | RuntimeException e) {
+            return null; // missing, unreadable or corrupt: compile from source
+        }
+    }
+
+    /** Writes {@code program} to {@code file}, replacing it atomically where the file system can. */
+    public static void write(Path file, byte[] hash, boolean optimized, Program program) throws IOException {
+        Writer writer = new Writer();
+        writer.program(program);
+        byte[] body = writer.body();
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).put(hash).put((byte) (optimized ? 1 : 0));
+        header.putInt(body.length).putInt((int) crc.getValue());
+        header.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, "." + file.getFileName(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer[] parts = { header, ByteBuffer.wrap(body) };
+                while (parts[1].hasRemaining()) {
+                    out.write(parts);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // ----------------------
+    // Variable-length ints
+    // ----------------------
+    private static void writeCount(DataOutputStream out, int n) throws IOException {
+        while ((n & ~0x7F) != 0) {
+            out.writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    private static int readCount(ByteBuffer in) {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            n |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (n < 0) break;
+                return n;
+            }
+        }
+        throw new IllegalStateException("Bad count");
+    }
+
+    // ----------------------
+    // Writing
+    // ----------------------
+    private static final class Writer implements ASTVisitor<Void> {
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> table = new ArrayList<>();
+        private final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(tree);
+
+        void program(Program program) {
+            program.accept(this);
+        }
+
+        /** String table, then the tree written against it. */
+        byte[] body() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(tree.size() + 16 * table.size());
+            DataOutputStream body = new DataOutputStream(bytes);
+            writeCount(body, table.size());
+            for (String s : table) {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                writeCount(body, utf8.length);
+                body.write(utf8);
+            }
+            tree.writeTo(body);
+            body.flush();
+            return bytes.toByteArray();
+        }
+
+        private void string(String s) throws IOException {
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = table.size();
+                strings.put(s, index);
+                table.add(s);
+            }
+            writeCount(out, index);
+        }
+
+        private void block(List<Statement> statements) throws IOException {
+            writeCount(out, statements.size());
+            for (Statement statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        // ByteArrayOutputStream never fails; the visitor interface cannot throw IOException
+        private interface Body {
+            void write() throws IOException;
+        }
+
+        private Void node(byte tag, Body body) {
+            try {
+                out.writeByte(tag);
+                body.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitProgram(Program node) {
+            try {
+                writeCount(out, node.slotNames.length);
+                for (String name : node.slotNames) {
+                    string(name);
+                }
+                block(node.statements);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVarDeclaration(VarDeclaration node) {
+            return node(VAR, () -> {
+                string(node.name);
+                string(node.varType);
+                writeCount(out, node.slot);
+            });
+        }
+
+        @Override
+        public Void visitAssignment(Assignment node) {
+            return node(ASSIGN, () -> {
+                string(node.name);
+                writeCount(out, node.slot);
+                node.value.accept(this);
+            });
+        }
+
+        @Override
+        public Void visitPrint(PrintStmt node) {
+            return node(PRINT, () -> node.value.accept(this));
+        }
+
+        @Override
+        public Void visitInput(InputStmt node) {
+            return node(INPUT, () -> {
+                string(node.prompt);
+                string(node.varName);
+                writeCount(out, node.slot);
+            });
+        }
+
+        @Override
+        public Void visitIf(IfStmt node) {
+            return node(IF, () -> {
+                node.condition.accept(this);
+                block(node.thenBlock);
+                out.writeBoolean(node.elseBlock != null);
+                if (node.elseBlock != null) {
+                    block(node.elseBlock);
+                }
+            });
+        }
+
+        @Override
+        public Void visitCondition(Condition node) {
+            try {
+                node.left.accept(this);
+                string(node.operator);
+                node.right.accept(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryOp(BinaryOp node) {
+            return node(BINARY, () -> {
+                string(node.operator);
+                node.left.accept(this);
+                node.right.accept(this);
+            });
+        }
+
+        @Override
+        public Void visitNumber(NumberNode node) {
+            int whole = (int) node.value;
+            if (whole >= 0 && whole == node.value && Double.doubleToRawLongBits(node.value) != Double.doubleToRawLongBits(-0.0)) {
+                return node(WHOLE_NUMBER, () -> writeCount(out, whole));
+            }
+            return node(NUMBER, () -> out.writeDouble(node.value));
+        }
+
+        @Override
+        public Void visitString(StringNode node) {
+            return node(STRING, () -> string(node.value));
+        }
+
+        @Override
+        public Void visitIdentifier(Identifier node) {
+            return node(IDENTIFIER, () -> {
+                string(node.name);
+                writeCount(out, node.slot);
+            });
+        }
+    }
+
+    // ----------------------
+    // Reading
+    // ----------------------
+    private static final class Reader {
+        private final ByteBuffer in;
+        private String[] strings;
+        private int maxSlot = -1; // checked against the slot names at the end
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        /** Throws (and the file is ignored) on anything that does not decode. */
+        Program program() {
+            strings = new String[count()];
+            byte[] utf8 = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = count();
+                if (utf8.length < length) utf8 = new byte[Math.max(length, utf8.length * 2)];
+                in.get(utf8, 0, length);
+                strings[i] = new String(utf8, 0, length, StandardCharsets.UTF_8);
+            }
+            String[] names = new String[count()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = string();
+            }
+            List<Statement> statements = block(count());
+            if (in.hasRemaining()) throw new IllegalStateException("Trailing bytes");
+            if (maxSlot >= names.length) throw new IllegalStateException("Bad slot " + maxSlot);
+            return new Program(statements, names);
+        }
+
+        /** A count, which can be no more than the bytes left (every item takes at least one). */
+        private int count() {
+            int n = readCount(in);
+            if (n > in.remaining()) throw new BufferUnderflowException();
+            return n;
+        }
+
+        private String string() {
+            return strings[readCount(in)];
+        }
+
+        private int slot() {
+            int slot = readCount(in);
+            maxSlot = Math.max(maxSlot, slot);
+            return slot;
+        }
+
+        private List<Statement> block(int size) {
+            List<Statement> statements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private Statement statement() {
+            byte tag = in.get();
+            switch (tag) {
+                case VAR: {
+                    String name = string();
+                    String type = string();
+                    return new VarDeclaration(name, type, slot());
+                }
+                case ASSIGN: {
+                    String name = string();
+                    int slot = slot();
+                    return new Assignment(name, slot, expression());
+                }
+                case PRINT:
+                    return new PrintStmt(expression());
+                case INPUT: {
+                    String prompt = string();
+                    String name = string();
+                    return new InputStmt(prompt, name, slot());
+                }
+                case IF: {
+                    Expression left = expression();
+                    String operator = string();
+                    Condition condition = new Condition(left, operator, expression());
+                    List<Statement> thenBlock = block(count());
+                    boolean hasElse = in.get() != 0;
+                    return new IfStmt(condition, thenBlock, hasElse ? block(count()) : null);
+                }
+                default:
+                    throw new IllegalStateException("Bad statement tag " + tag);
+            }
+        }
+
+        private Expression expression() {
+            byte tag = in.get();
+            switch (tag) {
+                case BINARY: {
+                    String operator = string();
+                    Expression left = expression();
+                    return new BinaryOp(left, operator, expression());
+                }
+                case NUMBER:
+                    return new NumberNode(in.getDouble());
+                case WHOLE_NUMBER:
+                    return new NumberNode(readCount(in));
+                case STRING:
+                    return new StringNode(string());
+                case IDENTIFIER: {
+                    String name = string();
+                    return new Identifier(name, slot());
+                }
+                default:
+                    throw new IllegalStateException("Bad expression tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives every variable name a fixed slot index. All customlang variables
+ * are global, so {@link Parser} resolves names as it builds nodes and the
+ * backends keep variables in a plain array frame indexed by slot.
+ * <p>
+ * A name that is read somewhere but never declared with THIS, assigned
+ * with {@code >>} or read with GIVE ... GET can never have a value; {@link #check()}
+ * reports it before the program runs.
+ */
+final class Resolver {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final BitSet written = new BitSet();
+    private final List<Integer> reads = new ArrayList<>(); // first read of each slot, in source order
+    private final List<Integer> readAt = new ArrayList<>(); // source offset of each of those reads
+    private final BitSet read = new BitSet();
+
+    // Every write (slot, -1) and read (slot, offset) in order, kept only for ParseTree
+    boolean logging;
+    int[] log = new int[64];
+    int logged;
+
+    Resolver() {
+    }
+
+    /** A resolver that keeps the slots of an earlier parse and adds new names after them. */
+    Resolver(String[] names) {
+        for (String name : names) {
+            slot(name);
+        }
+    }
+
+    private int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    /** Slot for a name that is given a value here. */
+    int write(String name) {
+        int slot = slot(name);
+        written.set(slot);
+        log(slot, -1);
+        return slot;
+    }
+
+    /** Slot for a name whose value is used here, at source offset {@code at}. */
+    int read(String name, int at) {
+        int slot = slot(name);
+        if (!read.get(slot)) {
+            read.set(slot);
+            reads.add(slot);
+            readAt.add(at);
+        }
+        log(slot, at);
+        return slot;
+    }
+
+    private void log(int slot, int at) {
+        if (!logging) return;
+        if (logged + 2 > log.length) log = Arrays.copyOf(log, log.length * 2);
+        log[logged++] = slot;
+        log[logged++] = at;
+    }
+
+    /** Fails on the first name that is read but never given a value. */
+    void check() {
+        for (int slot : reads) {
+            if (!written.get(slot)) {
+                throw new RuntimeException("Variable not found: " + names.get(slot));
+            }
+        }
+    }
+
+    /** Every name that is read but never given a value, at its first read. */
+    List<Diagnostic> unresolved() {
+        List<Diagnostic> found = new ArrayList<>();
+        for (int i = 0; i < reads.size(); i++) {
+            int slot = reads.get(i);
+            if (!written.get(slot)) {
+                String name = names.get(slot);
+                found.add(new Diagnostic(readAt.get(i), readAt.get(i) + name.length(), "Variable not found: " + name));
+            }
+        }
+        return found;
+    }
+
+    String[] names() {
+        return names.toArray(new String[0]);
+    }
+}
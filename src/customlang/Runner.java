@@ -0,0 +1,222 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs customlang scripts from the command line, without the IDE (and
+ * without loading AWT or Swing):
+ * <pre>
+ * java -cp Slugz.jar customlang.Runner [options] [script ...]
+ *
+ *   script           a source file; "-" or no script at all reads the program from stdin
+ *   --input FILE     answers to GIVE ... GET prompts, one per line (default: stdin,
+ *                    unless the script came from there)
+ *   --engine NAME    interpreter, closure (default), bytecode, specializing or tiered
+ *   --no-optimize    skip constant folding
+ *   --no-cache       neither read nor write precompiled .slgc files
+ *   --timings        print the time each phase took to stderr
+ * </pre>
+ * Scripts read from stdin or run with {@code --no-cache} are lexed as they
+ * are read (a file through a memory mapping), so the source text is never
+ * held whole; the .slgc check needs it all, to hash it. Scripts run one
+ * after another and share the input. PRESENT output goes through one
+ * buffered UTF-8 writer on stdout, flushed when a script ends (and before
+ * waiting on a person typing at the console). The exit status is 0 if
+ * every script ran, 1 if one failed, 2 for bad arguments.
+ */
+public final class Runner {
+    private static final int OUTPUT_BUFFER = 64 * 1024;
+
+    private Engine engine = Engine.CLOSURE;
+    private boolean optimize = true;
+    private boolean cache = true;
+    private boolean timings = false;
+    private Path inputFile;
+    private final List<String> scripts = new ArrayList<>();
+
+    private Writer out;
+    private BufferedReader input; // opened when the first GIVE needs it
+    private boolean interactive;  // answers come from a person at the console
+    private boolean stdinRead;    // a script was read from stdin, so no answers are left there
+
+    private Runner() {
+    }
+
+    public static void main(String[] args) {
+        Runner runner = new Runner();
+        String problem = runner.options(args);
+        if (problem != null) {
+            System.err.println(problem);
+            System.err.println("Usage: customlang.Runner [--input FILE] [--engine NAME] [--no-optimize] [--no-cache] [--timings] [script ...]");
+            System.exit(2);
+        }
+        System.exit(runner.runAll());
+    }
+
+    /** Reads the arguments; returns what is wrong with them, or null. */
+    private String options(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--input":
+                    if (++i == args.length) return "--input needs a file";
+                    inputFile = Paths.get(args[i]);
+                    break;
+                case "--engine":
+                    if (++i == args.length) return "--engine needs a name";
+                    engine = engineNamed(args[i]);
+                    if (engine == null) return "Unknown engine: " + args[i];
+                    break;
+                case "--no-optimize":
+                    optimize = false;
+                    break;
+                case "--no-cache":
+                    cache = false;
+                    break;
+                case "--timings":
+                    timings = true;
+                    break;
+                default:
+                    if (arg.startsWith("--")) return "Unknown option: " + arg;
+                    scripts.add(arg);
+            }
+        }
+        if (scripts.isEmpty()) scripts.add("-");
+        if (scripts.indexOf("-") != scripts.lastIndexOf("-")) {
+            return "Only one script can be read from stdin";
+        }
+        return null;
+    }
+
+    private static Engine engineNamed(String name) {
+        for (Engine candidate : Engine.values()) {
+            if (candidate.name().equalsIgnoreCase(name)) return candidate;
+        }
+        return null;
+    }
+
+    private int runAll() {
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8),
+                OUTPUT_BUFFER);
+        int status = 0;
+        for (String script : scripts) {
+            if (!run(script)) status = 1;
+        }
+        try {
+            if (input != null) input.close();
+        } catch (IOException e) {
+            // Exiting anyway
+        }
+        return status;
+    }
+
+    /** Runs one script; false if it could not be read, parsed or run to the end. */
+    private boolean run(String script) {
+        boolean fromStdin = script.equals("-");
+        String name = fromStdin ? "<stdin>" : script;
+        long started = System.nanoTime();
+        try {
+            Program program;
+            String phases; // what the time up to parsed went on
+            if (fromStdin || !cache) {
+                // Lexed as it is read, through the tokenizer's window: the source is never held whole
+                Tokenizer tokens;
+                if (fromStdin) {
+                    // After the answers of an earlier script, through the same reader: it may hold some of it
+                    tokens = new Tokenizer(input != null && inputFile == null
+                            ? input : new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                    stdinRead = true;
+                } else {
+                    tokens = Tokenizer.open(Paths.get(script), StandardCharsets.UTF_8);
+                }
+                program = new Parser(tokens).parse();
+                if (optimize) program = Optimizer.optimize(program);
+                phases = "read and parse ";
+            } else {
+                String source = new String(Files.readAllBytes(Paths.get(script)), StandardCharsets.UTF_8);
+                long read = System.nanoTime();
+                program = ProgramFile.load(Paths.get(script), source, optimize);
+                phases = "read " + millis(started, read) + ", load or parse ";
+                started = read;
+            }
+            long parsed = System.nanoTime();
+
+            CompiledProgram compiled = engine.compile(program);
+            long compiledAt = System.nanoTime();
+
+            compiled.run(new AppendableIO(out, this::answer));
+            out.flush();
+            long ran = System.nanoTime();
+
+            if (timings) {
+                System.err.println(name + ": " + phases + millis(started, parsed) + ", compile " + millis(parsed, compiledAt)
+                        + ", run " + millis(compiledAt, ran) + " (" + engine + ")");
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            flushQuietly();
+            System.err.println(name + ": Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** The next line of input for a GIVE prompt. */
+    private String answer(String prompt) {
+        try {
+            if (inputFile == null && stdinRead) {
+                throw new RuntimeException("stdin holds the script; pass --input");
+            }
+            if (input == null) {
+                InputStream in = inputFile != null ? Files.newInputStream(inputFile) : System.in;
+                input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                interactive = inputFile == null && System.console() != null;
+            }
+            if (interactive) {
+                out.flush(); // let the person see what came before the question
+                System.err.print(prompt + " ");
+                System.err.flush();
+            }
+            String line = input.readLine();
+            if (line == null) {
+                throw new RuntimeException("No input left for: " + prompt);
+            }
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // Reporting the first error instead
+        }
+    }
+
+    /** Milliseconds between two nanoTime readings, to a tenth. */
+    private static String millis(long from, long to) {
+        long tenths = (to - from) / 100000;
+        return tenths / 10 + "." + tenths % 10 + " ms";
+    }
+}
@@ -0,0 +1,651 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.List;
+
+/**
+ * Builds a tree of executable nodes that rewrite themselves to match the
+ * values they actually see at run time. Arithmetic and variable reads start
+ * out speculating on numbers and run unboxed; the first time a string turns
+ * up a node replaces itself with its generic version, which it then keeps
+ * for good, so rewriting always settles.
+ * <p>
+ * Each slot's kind (never written, number, or anything) is the inline cache
+ * behind the reads and writes: it only ever widens, and a numeric read
+ * checks it on every execution, deoptimizing as soon as a write has widened
+ * it.
+ * <p>
+ * Nodes are rewritten in place, so one compiled program runs one frame at
+ * a time.
+ */
+public class SpecializingCompiler implements ASTVisitor<Object> {
+
+    // Slot kinds
+    private static final byte UNINIT = 0;
+    private static final byte NUMBER = 1;
+    private static final byte OBJECT = 2;
+
+    private static final Integer ZERO = 0;
+
+    private final byte[] kinds;
+
+    private SpecializingCompiler(int slotCount) {
+        this.kinds = new byte[slotCount];
+    }
+
+    public static CompiledProgram compile(Program program) {
+        final Block body = new SpecializingCompiler(program.getSlotCount()).block(program.statements);
+        final String[] names = program.slotNames;
+        return io -> {
+            synchronized (body) {
+                body.execute(new Frame(io, names));
+            }
+        };
+    }
+
+    /** Stores a value, widening the slot's kind the first time it sees something new. */
+    private static void store(Frame frame, byte[] kinds, int slot, Object value) {
+        if (value instanceof Number) {
+            if (kinds[slot] == UNINIT) kinds[slot] = NUMBER;
+            if (kinds[slot] == NUMBER) {
+                frame.nums[slot] = ((Number) value).doubleValue();
+                return;
+            }
+        } else if (kinds[slot] == NUMBER) {
+            // This write replaces the slot's value, so nothing is left behind in nums
+            kinds[slot] = OBJECT;
+        }
+        frame.slots[slot] = value;
+    }
+
+    // ----------------------
+    // Node tree
+    // ----------------------
+    abstract static class Node {
+        Node parent;
+
+        final <T extends Node> T adopt(T child) {
+            child.parent = this;
+            return child;
+        }
+
+        /** Swaps this node for {@code replacement} in its parent and returns the replacement. */
+        final <T extends Node> T replace(T replacement) {
+            replacement.parent = parent;
+            parent.replaceChild(this, replacement);
+            return replacement;
+        }
+
+        void replaceChild(Node child, Node replacement) {
+            throw new IllegalStateException(getClass().getSimpleName() + " has no replaceable children");
+        }
+    }
+
+    abstract static class StmtNode extends Node {
+        abstract void execute(Frame frame);
+    }
+
+    abstract static class ExprNode extends Node {
+        abstract Object execute(Frame frame);
+
+        /** The result unboxed, or {@link UnexpectedResult} carrying it if it is not a number. */
+        double executeDouble(Frame frame) throws UnexpectedResult {
+            Object value = execute(frame);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    /** Thrown when a speculated number turns out to be something else. */
+    static final class UnexpectedResult extends Exception {
+        final Object result;
+
+        UnexpectedResult(Object result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+    }
+
+    static final class Block extends Node {
+        final StmtNode[] body;
+
+        Block(StmtNode[] body) {
+            this.body = body;
+            for (StmtNode stmt : body) {
+                adopt(stmt);
+            }
+        }
+
+        void execute(Frame frame) {
+            for (StmtNode stmt : body) {
+                Cancellation.check();
+                stmt.execute(frame);
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            for (int i = 0; i < body.length; i++) {
+                if (body[i] == child) {
+                    body[i] = (StmtNode) replacement;
+                    return;
+                }
+            }
+        }
+    }
+
+    // ----------------------
+    // Statements
+    // ----------------------
+    private Block block(List<Statement> statements) {
+        StmtNode[] body = new StmtNode[statements.size()];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (StmtNode) statements.get(i).accept(this);
+        }
+        return new Block(body);
+    }
+
+    @Override
+    public Object visitProgram(Program node) {
+        throw new IllegalStateException("Program is compiled with compile()");
+    }
+
+    @Override
+    public Object visitVarDeclaration(VarDeclaration node) {
+        return new Store(kinds, node.slot) {
+            @Override
+            void execute(Frame frame) {
+                store(frame, kinds, slot, ZERO);
+            }
+        };
+    }
+
+    @Override
+    public Object visitAssignment(Assignment node) {
+        return new UninitWrite(kinds, node.slot, (ExprNode) node.value.accept(this));
+    }
+
+    @Override
+    public Object visitPrint(PrintStmt node) {
+        if (node.value instanceof StringNode) {
+            final String text = ((StringNode) node.value).value;
+            return new StmtNode() {
+                @Override
+                void execute(Frame frame) {
+                    frame.io.print(text);
+                }
+            };
+        }
+        return new UninitPrint((ExprNode) node.value.accept(this));
+    }
+
+    @Override
+    public Object visitInput(InputStmt node) {
+        final String prompt = node.prompt;
+        return new Store(kinds, node.slot) {
+            @Override
+            void execute(Frame frame) {
+                store(frame, kinds, slot, Values.fromInput(frame.io.read(prompt)));
+            }
+        };
+    }
+
+    @Override
+    public Object visitIf(IfStmt node) {
+        CompareNode condition = (CompareNode) node.condition.accept(this);
+        Block elseBlock = node.elseBlock == null ? null : block(node.elseBlock);
+        return new If(condition, block(node.thenBlock), elseBlock);
+    }
+
+    abstract static class Store extends StmtNode {
+        final byte[] kinds;
+        final int slot;
+
+        Store(byte[] kinds, int slot) {
+            this.kinds = kinds;
+            this.slot = slot;
+        }
+    }
+
+    abstract static class Write extends Store {
+        ExprNode value;
+
+        Write(byte[] kinds, int slot, ExprNode value) {
+            super(kinds, slot);
+            this.value = adopt(value);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            value = (ExprNode) replacement;
+        }
+    }
+
+    /** An assignment that has not run yet; becomes numeric or generic on its first value. */
+    static final class UninitWrite extends Write {
+        UninitWrite(byte[] kinds, int slot, ExprNode value) {
+            super(kinds, slot, value);
+        }
+
+        @Override
+        void execute(Frame frame) {
+            Object result = value.execute(frame);
+            store(frame, kinds, slot, result);
+            if (result instanceof Number && kinds[slot] == NUMBER) {
+                replace(new NumberWrite(kinds, slot, value));
+            } else {
+                replace(new ObjectWrite(kinds, slot, value));
+            }
+        }
+    }
+
+    static final class NumberWrite extends Write {
+        NumberWrite(byte[] kinds, int slot, ExprNode value) {
+            super(kinds, slot, value);
+        }
+
+        @Override
+        void execute(Frame frame) {
+            double result;
+            try {
+                result = value.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                replace(new ObjectWrite(kinds, slot, value));
+                store(frame, kinds, slot, e.result);
+                return;
+            }
+            if (kinds[slot] == NUMBER) {
+                frame.nums[slot] = result;
+            } else {
+                // Another write widened the slot
+                replace(new ObjectWrite(kinds, slot, value));
+                store(frame, kinds, slot, Values.box(result));
+            }
+        }
+    }
+
+    static final class ObjectWrite extends Write {
+        ObjectWrite(byte[] kinds, int slot, ExprNode value) {
+            super(kinds, slot, value);
+        }
+
+        @Override
+        void execute(Frame frame) {
+            store(frame, kinds, slot, value.execute(frame));
+        }
+    }
+
+    abstract static class Print extends StmtNode {
+        ExprNode value;
+
+        Print(ExprNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            value = (ExprNode) replacement;
+        }
+    }
+
+    static final class UninitPrint extends Print {
+        UninitPrint(ExprNode value) {
+            super(value);
+        }
+
+        @Override
+        void execute(Frame frame) {
+            Object result = value.execute(frame);
+            frame.printValue(result);
+            replace(result instanceof Number ? new NumberPrint(value) : new ObjectPrint(value));
+        }
+    }
+
+    static final class NumberPrint extends Print {
+        NumberPrint(ExprNode value) {
+            super(value);
+        }
+
+        @Override
+        void execute(Frame frame) {
+            try {
+                frame.printNumber(value.executeDouble(frame));
+            } catch (UnexpectedResult e) {
+                replace(new ObjectPrint(value));
+                frame.printValue(e.result);
+            }
+        }
+    }
+
+    static final class ObjectPrint extends Print {
+        ObjectPrint(ExprNode value) {
+            super(value);
+        }
+
+        @Override
+        void execute(Frame frame) {
+            frame.printValue(value.execute(frame));
+        }
+    }
+
+    static final class If extends StmtNode {
+        CompareNode condition;
+        final Block thenBlock;
+        final Block elseBlock;
+
+        If(CompareNode condition, Block thenBlock, Block elseBlock) {
+            this.condition = adopt(condition);
+            this.thenBlock = adopt(thenBlock);
+            this.elseBlock = elseBlock == null ? null : adopt(elseBlock);
+        }
+
+        @Override
+        void execute(Frame frame) {
+            if (condition.test(frame)) {
+                thenBlock.execute(frame);
+            } else if (elseBlock != null) {
+                elseBlock.execute(frame);
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            condition = (CompareNode) replacement;
+        }
+    }
+
+    // ----------------------
+    // Expressions
+    // ----------------------
+
+    // Operator codes shared by arithmetic and comparison nodes
+    private static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3;
+    private static final int EQ = 0, NE = 1, GT = 2, LT = 3, GE = 4, LE = 5, BAD = -1;
+
+    private static int arithmeticCode(String operator) {
+        switch (operator) {
+            case "+": return ADD;
+            case "-": return SUB;
+            case "*": return MUL;
+            case "/": return DIV;
+            default: throw new RuntimeException("Unknown operator: " + operator);
+        }
+    }
+
+    private static int compareCode(String operator) {
+        switch (operator) {
+            case "==": return EQ;
+            case "!=": return NE;
+            case ">": return GT;
+            case "<": return LT;
+            case ">=": return GE;
+            case "<=": return LE;
+            default: return BAD;
+        }
+    }
+
+    @Override
+    public Object visitBinaryOp(BinaryOp node) {
+        ExprNode left = (ExprNode) node.left.accept(this);
+        ExprNode right = (ExprNode) node.right.accept(this);
+        return new NumberBinary(arithmeticCode(node.operator), left, right);
+    }
+
+    @Override
+    public Object visitCondition(Condition node) {
+        ExprNode left = (ExprNode) node.left.accept(this);
+        ExprNode right = (ExprNode) node.right.accept(this);
+        return new NumberCompare(compareCode(node.operator), node.operator, left, right);
+    }
+
+    @Override
+    public Object visitNumber(NumberNode node) {
+        final Double boxed = node.value;
+        final double value = node.value;
+        return new ExprNode() {
+            @Override
+            Object execute(Frame frame) {
+                return boxed;
+            }
+
+            @Override
+            double executeDouble(Frame frame) {
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public Object visitString(StringNode node) {
+        final String value = node.value;
+        return new ExprNode() {
+            @Override
+            Object execute(Frame frame) {
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public Object visitIdentifier(Identifier node) {
+        return new UninitRead(kinds, node.slot);
+    }
+
+    abstract static class Read extends ExprNode {
+        final byte[] kinds;
+        final int slot;
+
+        Read(byte[] kinds, int slot) {
+            this.kinds = kinds;
+            this.slot = slot;
+        }
+    }
+
+    /** A read of a slot no run has written yet; specializes once one has. */
+    static final class UninitRead extends Read {
+        UninitRead(byte[] kinds, int slot) {
+            super(kinds, slot);
+        }
+
+        private Read specialize() {
+            switch (kinds[slot]) {
+                case NUMBER: return replace(new NumberRead(kinds, slot));
+                case OBJECT: return replace(new ObjectRead(kinds, slot));
+                default: return null;
+            }
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Read specialized = specialize();
+            return specialized == null ? frame.get(slot) : specialized.execute(frame);
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResult {
+            Read specialized = specialize();
+            return specialized == null ? super.executeDouble(frame) : specialized.executeDouble(frame);
+        }
+    }
+
+    static final class NumberRead extends Read {
+        NumberRead(byte[] kinds, int slot) {
+            super(kinds, slot);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            if (kinds[slot] != NUMBER) {
+                return replace(new ObjectRead(kinds, slot)).execute(frame);
+            }
+            return Values.box(frame.getNumber(slot));
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResult {
+            if (kinds[slot] != NUMBER) {
+                return replace(new ObjectRead(kinds, slot)).executeDouble(frame);
+            }
+            return frame.getNumber(slot);
+        }
+    }
+
+    static final class ObjectRead extends Read {
+        ObjectRead(byte[] kinds, int slot) {
+            super(kinds, slot);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return frame.get(slot);
+        }
+    }
+
+    abstract static class BinaryNode extends ExprNode {
+        final int op;
+        ExprNode left;
+        ExprNode right;
+
+        BinaryNode(int op, ExprNode left, ExprNode right) {
+            this.op = op;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        abstract double executeDouble(Frame frame);
+
+        @Override
+        Object execute(Frame frame) {
+            return Values.box(executeDouble(frame));
+        }
+
+        final double apply(double l, double r) {
+            switch (op) {
+                case ADD: return l + r;
+                case SUB: return l - r;
+                case MUL: return l * r;
+                default: return l / r;
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (child == left) left = (ExprNode) replacement;
+            else right = (ExprNode) replacement;
+        }
+    }
+
+    /** Arithmetic on operands that have only ever been numbers. */
+    static final class NumberBinary extends BinaryNode {
+        NumberBinary(int op, ExprNode left, ExprNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        double executeDouble(Frame frame) {
+            double l;
+            try {
+                l = left.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                replace(new GenericBinary(op, left, right));
+                l = Values.toNumber(e.result);
+                return apply(l, Values.toNumber(right.execute(frame)));
+            }
+            try {
+                return apply(l, right.executeDouble(frame));
+            } catch (UnexpectedResult e) {
+                replace(new GenericBinary(op, left, right));
+                return apply(l, Values.toNumber(e.result));
+            }
+        }
+    }
+
+    static final class GenericBinary extends BinaryNode {
+        GenericBinary(int op, ExprNode left, ExprNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        double executeDouble(Frame frame) {
+            double l = Values.toNumber(left.execute(frame));
+            return apply(l, Values.toNumber(right.execute(frame)));
+        }
+    }
+
+    abstract static class CompareNode extends Node {
+        final int op;
+        final String operator;
+        ExprNode left;
+        ExprNode right;
+
+        CompareNode(int op, String operator, ExprNode left, ExprNode right) {
+            this.op = op;
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        abstract boolean test(Frame frame);
+
+        final boolean apply(double l, double r) {
+            switch (op) {
+                case EQ: return l == r;
+                case NE: return l != r;
+                case GT: return l > r;
+                case LT: return l < r;
+                case GE: return l >= r;
+                case LE: return l <= r;
+                default: return Values.compare(operator, l, r); // reports the unknown operator
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (child == left) left = (ExprNode) replacement;
+            else right = (ExprNode) replacement;
+        }
+    }
+
+    static final class NumberCompare extends CompareNode {
+        NumberCompare(int op, String operator, ExprNode left, ExprNode right) {
+            super(op, operator, left, right);
+        }
+
+        @Override
+        boolean test(Frame frame) {
+            double l;
+            try {
+                l = left.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                replace(new GenericCompare(op, operator, left, right));
+                l = Values.toNumber(e.result);
+                return apply(l, Values.toNumber(right.execute(frame)));
+            }
+            try {
+                return apply(l, right.executeDouble(frame));
+            } catch (UnexpectedResult e) {
+                replace(new GenericCompare(op, operator, left, right));
+                return apply(l, Values.toNumber(e.result));
+            }
+        }
+    }
+
+    static final class GenericCompare extends CompareNode {
+        GenericCompare(int op, String operator, ExprNode left, ExprNode right) {
+            super(op, operator, left, right);
+        }
+
+        @Override
+        boolean test(Frame frame) {
+            double l = Values.toNumber(left.execute(frame));
+            return apply(l, Values.toNumber(right.execute(frame)));
+        }
+    }
+}
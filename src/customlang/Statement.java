@@ -0,0 +1,14 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** A node that can appear in a statement list. */
+public abstract class Statement extends ASTNode {
+
+    Statement() {
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** String literal (only allowed directly after PRESENT) */
+public final class StringNode extends Expression {
+    final String value;
+
+    public StringNode(String value) {
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitString(this);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a program on the closure tree until it has been run
+ * {@link #HOT_RUNS} times, then compiles it to a JVM class with
+ * {@link JvmCompiler} in the background and switches over once that is
+ * ready. Runs never wait for the compile; if it fails (no JDK compiler, or
+ * javac rejects the source) the program stays on the closure tree, and the
+ * failure is logged and kept for {@link #failure()}.
+ */
+final class TieredProgram implements CompiledProgram {
+    /** Runs after which a program counts as hot. */
+    static final int HOT_RUNS = 1000;
+
+    private static final Logger logger = Logger.getLogger(TieredProgram.class.getName());
+
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "customlang-jit");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final Program program;
+    private final int hotRuns;
+    private final AtomicInteger runs = new AtomicInteger();
+    private volatile CompiledProgram current;
+    private volatile boolean promoted;
+    private volatile IllegalStateException failure;
+
+    TieredProgram(Program program) {
+        this(program, HOT_RUNS);
+    }
+
+    TieredProgram(Program program, int hotRuns) {
+        this.program = program;
+        this.hotRuns = hotRuns;
+        this.current = ClosureCompiler.compile(program);
+    }
+
+    @Override
+    public void run(Interpreter.IOCallback io) {
+        if (runs.incrementAndGet() == hotRuns && JvmCompiler.isAvailable()) {
+            COMPILER.execute(this::promote);
+        }
+        current.run(io);
+    }
+
+    private void promote() {
+        try {
+            current = JvmCompiler.compile(program);
+            promoted = true;
+        } catch (IllegalStateException e) {
+            failure = e; // stay on the closure tree
+            logger.log(Level.WARNING, "Program not promoted to a JVM class", e);
+        }
+    }
+
+    /** Whether runs have moved to the compiled JVM class. */
+    boolean isPromoted() {
+        return promoted;
+    }
+
+    /** Why promotion failed, or null if it has not (or not yet). */
+    IllegalStateException failure() {
+        return failure;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.Arrays;
+
+/**
+ * Compact token stream: one kind byte and a start/end offset pair per token,
+ * all pointing back into the source text. No per-token objects are created;
+ * text is only materialized when {@link #text(int)} is asked for it.
+ * <p>
+ * Tokens are kept in chunks of a few thousand. A list made from another
+ * one by {@link #addAll(TokenList, int, int, int)} shares its whole chunks
+ * instead of copying them, with the shift kept once per chunk, so the
+ * tokens of a big text after an edit cost a pass over the chunks, not the
+ * tokens. Chunks are never changed where another list can see them.
+ */
+public class TokenList {
+    private static final TokenType[] KINDS = TokenType.values();
+    private static final int CHUNK = 4096;
+
+    private static final class Chunk {
+        final byte[] kinds;
+        final int[] starts;
+        final int[] ends;
+
+        Chunk(int capacity) {
+            kinds = new byte[capacity];
+            starts = new int[capacity];
+            ends = new int[capacity];
+        }
+    }
+
+    private final CharSequence source;
+    private Chunk[] chunks = new Chunk[4];
+    private int[] firsts = new int[4]; // index of each chunk's first token here
+    private int[] counts = new int[4]; // tokens this list uses of each chunk, from its start
+    private int[] shifts = new int[4]; // chars added to each chunk's offsets here
+    private int chunkCount;
+    private boolean appendable;        // the last chunk is this list's own, with room after what it uses
+    private int size = 0;
+    private int recent;                // the chunk the last lookup found; a hint only
+
+    public TokenList(CharSequence source) {
+        this.source = source;
+    }
+
+    /** {@code capacity} was the size of the token arrays; chunks grow as needed now. */
+    public TokenList(CharSequence source, int capacity) {
+        this(source);
+    }
+
+    void add(TokenType kind, int start, int end) {
+        if (!appendable) {
+            addChunk(new Chunk(CHUNK), 0, 0);
+            appendable = true;
+        }
+        int c = chunkCount - 1;
+        Chunk chunk = chunks[c];
+        int at = counts[c];
+        chunk.kinds[at] = (byte) kind.ordinal();
+        chunk.starts[at] = start;
+        chunk.ends[at] = end;
+        counts[c] = at + 1;
+        size++;
+        if (at + 1 == CHUNK) appendable = false;
+    }
+
+    /**
+     * Appends tokens {@code from} to {@code to} of {@code other}, moved by
+     * {@code shift} chars. Chunks at least half full that lie wholly inside
+     * the range are shared; the rest is copied.
+     */
+    void addAll(TokenList other, int from, int to, int shift) {
+        int i = from;
+        while (i < to) {
+            int c = other.chunkOf(i);
+            int end = Math.min(other.firsts[c] + other.counts[c], to);
+            if (i == other.firsts[c] && end == other.firsts[c] + other.counts[c] && other.counts[c] >= CHUNK / 2) {
+                addChunk(other.chunks[c], other.counts[c], other.shifts[c] + shift);
+                appendable = false; // the chunk is other's, and maybe still filling there
+                size += other.counts[c];
+            } else {
+                Chunk chunk = other.chunks[c];
+                int by = other.shifts[c] + shift;
+                for (int k = i - other.firsts[c], n = end - other.firsts[c]; k < n; k++) {
+                    add(KINDS[chunk.kinds[k]], chunk.starts[k] + by, chunk.ends[k] + by);
+                }
+            }
+            i = end;
+        }
+    }
+
+    private void addChunk(Chunk chunk, int count, int shift) {
+        if (chunkCount == chunks.length) {
+            int capacity = chunkCount * 2;
+            chunks = Arrays.copyOf(chunks, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            shifts = Arrays.copyOf(shifts, capacity);
+        }
+        chunks[chunkCount] = chunk;
+        firsts[chunkCount] = size;
+        counts[chunkCount] = count;
+        shifts[chunkCount] = shift;
+        chunkCount++;
+    }
+
+    /** The chunk holding token {@code i} (which must be below the size). */
+    private int chunkOf(int i) {
+        int c = recent;
+        if (c < chunkCount && i >= firsts[c] && i < firsts[c] + counts[c]) return c;
+        if (c + 1 < chunkCount && i >= firsts[c + 1] && i < firsts[c + 1] + counts[c + 1]) return recent = c + 1;
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firsts[mid] <= i) low = mid;
+            else high = mid - 1;
+        }
+        return recent = low;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public CharSequence source() {
+        return source;
+    }
+
+    /** Kind of token {@code i}, or {@link TokenType#EOF} past the end. */
+    public TokenType kind(int i) {
+        if (i >= size) return TokenType.EOF;
+        int c = chunkOf(i);
+        return KINDS[chunks[c].kinds[i - firsts[c]]];
+    }
+
+    public int start(int i) {
+        if (i >= size) return source.length();
+        int c = chunkOf(i);
+        return chunks[c].starts[i - firsts[c]] + shifts[c];
+    }
+
+    public int end(int i) {
+        if (i >= size) return source.length();
+        int c = chunkOf(i);
+        return chunks[c].ends[i - firsts[c]] + shifts[c];
+    }
+
+    /** Source spelling of token {@code i} ("" past the end). */
+    public String text(int i) {
+        if (i >= size) return "";
+        String fixed = kind(i).text();
+        if (fixed != null) return fixed;
+        return source.subSequence(start(i), end(i)).toString();
+    }
+
+    /** Contents of a string literal token without its quotes. */
+    public String stringValue(int i) {
+        int start = start(i);
+        return source.subSequence(start + 1, Tokenizer.stringContentEnd(source, start, end(i))).toString();
+    }
+
+    /** A pull cursor over this list, starting at token {@code from}. */
+    public TokenSource cursor(final int from) {
+        return new TokenSource() {
+            private int i = from - 1;
+
+            @Override
+            public TokenType nextToken() {
+                if (i < size) i++;
+                return kind(i);
+            }
+
+            @Override
+            public int tokenStart() {
+                return start(i);
+            }
+
+            @Override
+            public int tokenEnd() {
+                return end(i);
+            }
+
+            @Override
+            public String tokenText() {
+                return text(i);
+            }
+        };
+    }
+}
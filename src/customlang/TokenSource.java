@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+/**
+ * A pull-based stream of tokens. {@link Parser} asks for one token at a
+ * time, so a source never has to materialize the whole token list.
+ */
+public interface TokenSource {
+
+    /** Advances to the next token and returns its kind ({@link TokenType#EOF} at the end). */
+    TokenType nextToken();
+
+    /** Absolute source offset of the current token. */
+    int tokenStart();
+
+    /** Absolute source offset just past the current token. */
+    int tokenEnd();
+
+    /** Source spelling of the current token. */
+    String tokenText();
+}
@@ -0,0 +1,45 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+/**
+ * Token kinds produced by {@link Tokenizer}. Fixed tokens carry their
+ * source spelling so error messages can quote them without looking at the
+ * source text.
+ */
+public enum TokenType {
+    // Keywords
+    BEGIN("BEGIN"), STOP("STOP"), THIS("THIS"), AS("AS"),
+    GIVE("GIVE"), GET("GET"), PRESENT("PRESENT"),
+    IF("IF"), THEN("THEN"), OR_ELSE("OR ELSE"), OR("OR"),
+
+    // Operators
+    ASSIGN(">>"), EQ("=="), NEQ("!="), GTE(">="), LTE("<="),
+    PLUS("+"), MINUS("-"), MULTIPLY("*"), DIVIDE("/"),
+    GT(">"), LT("<"), EQUALS("="),
+    LPAREN("("), RPAREN(")"), LBRACE("{"), RBRACE("}"),
+
+    // Literals & identifiers (spelling comes from the source)
+    NUMBER(null), STRING(null), IDENTIFIER(null),
+
+    EOF("");
+
+    private final String text;
+
+    TokenType(String text) {
+        this.text = text;
+    }
+
+    /** The fixed spelling of this token, or null for literals and identifiers. */
+    public String text() {
+        return text;
+    }
+
+    /** Keywords and identifiers both start with a letter and may name a variable. */
+    public boolean isWord() {
+        return this == IDENTIFIER || ordinal() <= OR.ordinal();
+    }
+}
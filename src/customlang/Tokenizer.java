@@ -7,98 +7,404 @@ package customlang;
 
 
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lexer for customlang. Tokens are pulled one at a time with
+ * {@link #nextToken()}; the source is either an in-memory string or any
+ * {@link Readable} (a {@code Reader}, a {@code CharBuffer}, or a
+ * memory-mapped file via {@link #open(Path, Charset)}), read through a small
+ * sliding window so memory stays flat however large the script is.
+ */
+public class Tokenizer implements TokenSource {
+    // Character classes for the ASCII fast path
+    private static final byte OTHER = 0;
+    private static final byte SPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte LETTER = 3;
+    private static final byte QUOTE = 4;
+    private static final byte OPERATOR = 5;
+
+    private static final byte[] ASCII_CLASS = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) ASCII_CLASS[c] = SPACE;
+            else if (c >= '0' && c <= '9') ASCII_CLASS[c] = DIGIT;
+            else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) ASCII_CLASS[c] = LETTER;
+        }
+        ASCII_CLASS['"'] = QUOTE;
+        for (char c : "+-*/><=(){}!".toCharArray()) ASCII_CLASS[c] = OPERATOR;
+    }
+
+    private static final int WINDOW = 8192;
+
+    private String code;     // whole source when tokenizing from memory
+    private Readable in;     // streaming source, null once exhausted
+
+    // Window over the source: buf[0] is absolute offset bufStart
+    private char[] buf;
+    private int bufStart = 0;
+    private int bufLen = 0;
 
-public class Tokenizer {
-    private String code;
     private int pos = 0;
 
+    // Bounds of the token last returned by nextToken()
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean stringClosed; // whether the last STRING token had its closing quote
+
     public Tokenizer(String code) {
         this.code = code;
+        this.buf = code.toCharArray();
+        this.bufLen = buf.length;
     }
 
-    public List<String> tokenize() {
-        List<String> tokens = new ArrayList<>();
+    /**
+     * Lexes {@code code} from offset {@code from} on, reading it through the
+     * window rather than copying it all, so lexing a few tokens of a large
+     * text costs a few tokens.
+     */
+    Tokenizer(String code, int from) {
+        this.code = code;
+        this.in = CharBuffer.wrap(code, from, code.length());
+        this.buf = new char[WINDOW];
+        this.bufStart = from;
+        this.pos = from;
+        this.tokenStart = from;
+    }
 
-        while (pos < code.length()) {
-            char ch = code.charAt(pos);
+    public Tokenizer(Readable source) {
+        this.in = source;
+        this.buf = new char[WINDOW];
+    }
 
-            // Skip whitespace
-            if (Character.isWhitespace(ch)) { pos++; continue; }
+    /**
+     * Lexes {@code count} chars of {@code text} from {@code offset} in
+     * place, without copying (a {@code javax.swing.text.Segment}, say).
+     * Token offsets are relative to {@code offset}.
+     */
+    public Tokenizer(char[] text, int offset, int count) {
+        this.buf = text;
+        this.bufStart = -offset;
+        this.bufLen = offset + count;
+    }
 
-            // String literals
-            if (ch == '"') { tokens.add(readString()); continue; }
+    /** Streams tokens straight out of a memory-mapped file. */
+    public static Tokenizer open(Path file, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Tokenizer(new MappedSource(bytes, charset));
+        }
+    }
 
-            // Numbers
-            if (Character.isDigit(ch)) { tokens.add(readNumber()); continue; }
+    /** Tokenizes the whole in-memory source up front. */
+    public TokenList tokenize() {
+        if (code == null) {
+            throw new IllegalStateException("tokenize() needs an in-memory source; pull tokens with nextToken()");
+        }
+        TokenList tokens = new TokenList(code);
+        TokenType kind;
+        while ((kind = nextToken()) != TokenType.EOF) {
+            tokens.add(kind, tokenStart, tokenEnd);
+        }
+        return tokens;
+    }
 
-            // Identifiers and keywords
-            if (Character.isLetter(ch)) { tokens.add(readWordOrKeyword()); continue; }
+    @Override
+    public TokenType nextToken() {
+        int ch;
+        while ((ch = peek(pos)) >= 0) {
+            byte cls = classify((char) ch);
+            tokenStart = pos;
 
-            // Two-character operators
-            if (pos + 1 < code.length()) {
-                String twoChar = code.substring(pos, pos + 2);
-                if (twoChar.equals(">>") || twoChar.equals("==") || 
-                    twoChar.equals("!=") || twoChar.equals(">=") || twoChar.equals("<=")) {
-                    tokens.add(twoChar);
-                    pos += 2;
+            switch (cls) {
+                case SPACE:
+                    pos++;
                     continue;
-                }
+                case QUOTE:
+                    return readString();
+                case DIGIT:
+                    return readNumber();
+                case LETTER:
+                    return readWordOrKeyword();
+                case OPERATOR:
+                    TokenType op = readOperator((char) ch);
+                    if (op != null) return op;
+                    continue;
+                default:
+                    pos++; // skip unknown
             }
+        }
+
+        tokenStart = tokenEnd = pos;
+        return TokenType.EOF;
+    }
+
+    /**
+     * Reads the rest of a string literal whose opening quote came before
+     * this text (a string running over a line break): everything up to and
+     * including the closing quote. Only valid before the first nextToken().
+     */
+    public TokenType resumeString() {
+        tokenStart = pos;
+        return finishString();
+    }
+
+    /** Whether the STRING token just read ended with its closing quote. */
+    public boolean isStringClosed() {
+        return stringClosed;
+    }
+
+    @Override
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    @Override
+    public int tokenEnd() {
+        return tokenEnd;
+    }
+
+    @Override
+    public String tokenText() {
+        if (code != null) return code.substring(tokenStart, tokenEnd);
+        return new String(buf, tokenStart - bufStart, tokenEnd - tokenStart);
+    }
+
+    // ----------------------
+    // Source window
+    // ----------------------
 
-            // Single-character operators
-            if ("+-*/><=(){}".contains(String.valueOf(ch))) {
-                tokens.add(String.valueOf(ch));
-                pos++;
-                continue;
+    /** Character at absolute offset {@code at}, or -1 past the end of the source. */
+    private int peek(int at) {
+        int i = at - bufStart;
+        if (i < bufLen) return buf[i];
+        return fill(at) ? buf[at - bufStart] : -1;
+    }
+
+    /**
+     * Reads more input until {@code at} is inside the window. Everything
+     * from the start of the current token on is kept, so a token never
+     * straddles a discarded chunk.
+     */
+    private boolean fill(int at) {
+        if (in == null) return false;
+        try {
+            int keep = Math.min(tokenStart, pos) - bufStart;
+            if (keep > 0) {
+                System.arraycopy(buf, keep, buf, 0, bufLen - keep);
+                bufStart += keep;
+                bufLen -= keep;
+            }
+            while (at - bufStart >= bufLen) {
+                if (bufLen == buf.length) {
+                    char[] grown = new char[buf.length * 2];
+                    System.arraycopy(buf, 0, grown, 0, bufLen);
+                    buf = grown;
+                }
+                int n = in.read(CharBuffer.wrap(buf, bufLen, buf.length - bufLen));
+                if (n < 0) {
+                    in = null;
+                    return false;
+                }
+                bufLen += n;
             }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte classify(char ch) {
+        if (ch < 128) return ASCII_CLASS[ch];
+        if (Character.isWhitespace(ch)) return SPACE;
+        if (Character.isDigit(ch)) return DIGIT;
+        if (Character.isLetter(ch)) return LETTER;
+        return OTHER;
+    }
 
-            pos++; // skip unknown
+    private static boolean isWordPart(int ch) {
+        if (ch < 0) return false;
+        if (ch < 128) {
+            byte cls = ASCII_CLASS[ch];
+            return cls == LETTER || cls == DIGIT || ch == '_';
         }
+        return Character.isLetterOrDigit(ch);
+    }
 
-        return tokens;
+    // ----------------------
+    // Token readers
+    // ----------------------
+
+    private TokenType readOperator(char ch) {
+        // Two-character operators
+        int second = peek(pos + 1);
+        TokenType twoChar = null;
+        if (second == '>' && ch == '>') twoChar = TokenType.ASSIGN;
+        else if (second == '=') {
+            switch (ch) {
+                case '=': twoChar = TokenType.EQ; break;
+                case '!': twoChar = TokenType.NEQ; break;
+                case '>': twoChar = TokenType.GTE; break;
+                case '<': twoChar = TokenType.LTE; break;
+                default: break;
+            }
+        }
+        if (twoChar != null) {
+            pos += 2;
+            tokenEnd = pos;
+            return twoChar;
+        }
+
+        // Single-character operators
+        TokenType single;
+        switch (ch) {
+            case '+': single = TokenType.PLUS; break;
+            case '-': single = TokenType.MINUS; break;
+            case '*': single = TokenType.MULTIPLY; break;
+            case '/': single = TokenType.DIVIDE; break;
+            case '>': single = TokenType.GT; break;
+            case '<': single = TokenType.LT; break;
+            case '=': single = TokenType.EQUALS; break;
+            case '(': single = TokenType.LPAREN; break;
+            case ')': single = TokenType.RPAREN; break;
+            case '{': single = TokenType.LBRACE; break;
+            case '}': single = TokenType.RBRACE; break;
+            default: single = null; // a lone '!' is skipped
+        }
+        pos++;
+        tokenEnd = pos;
+        return single;
     }
 
-    private String readString() {
-        StringBuilder sb = new StringBuilder();
+    private TokenType readString() {
         pos++; // skip opening quote
-        while (pos < code.length() && code.charAt(pos) != '"') {
-            sb.append(code.charAt(pos));
+        return finishString();
+    }
+
+    private TokenType finishString() {
+        int ch;
+        while ((ch = peek(pos)) >= 0 && ch != '"') {
             pos++;
         }
-        pos++; // skip closing quote
-        return "\"" + sb.toString() + "\"";
+        stringClosed = ch == '"';
+        if (stringClosed) pos++; // skip closing quote
+        tokenEnd = pos;
+        return TokenType.STRING;
     }
 
-    private String readNumber() {
-        StringBuilder sb = new StringBuilder();
-        while (pos < code.length() && (Character.isDigit(code.charAt(pos)) || code.charAt(pos) == '.')) {
-            sb.append(code.charAt(pos));
+    private TokenType readNumber() {
+        int ch;
+        while ((ch = peek(pos)) >= 0 && (ch == '.' || classify((char) ch) == DIGIT)) {
             pos++;
         }
-        return sb.toString();
+        tokenEnd = pos;
+        return TokenType.NUMBER;
     }
 
-    private String readWordOrKeyword() {
-        StringBuilder sb = new StringBuilder();
-        while (pos < code.length() && (Character.isLetterOrDigit(code.charAt(pos)) || code.charAt(pos) == '_')) {
-            sb.append(code.charAt(pos));
+    private TokenType readWordOrKeyword() {
+        while (isWordPart(peek(pos))) {
             pos++;
         }
+        tokenEnd = pos;
 
-        String word = sb.toString();
+        TokenType keyword = keyword(buf, tokenStart - bufStart, tokenEnd - bufStart);
 
         // Check for OR ELSE: merge two words
-        if (word.equals("OR")) {
+        if (keyword == TokenType.OR) {
             int temp = pos;
-            while (temp < code.length() && Character.isWhitespace(code.charAt(temp))) temp++;
-            if (temp + 3 <= code.length() && code.substring(temp, temp + 4).equals("ELSE")) {
-                pos = temp + 4; // consume ELSE
-                word = "OR ELSE";
+            int ch;
+            while ((ch = peek(temp)) >= 0 && classify((char) ch) == SPACE) temp++;
+            if (peek(temp) == 'E' && peek(temp + 1) == 'L' && peek(temp + 2) == 'S' && peek(temp + 3) == 'E') {
+                pos = tokenEnd = temp + 4; // consume ELSE
+                keyword = TokenType.OR_ELSE;
             }
         }
 
-        return word;
+        return keyword;
+    }
+
+    /** Resolves a word to its keyword kind without materializing it. */
+    static TokenType keyword(char[] src, int start, int end) {
+        switch (end - start) {
+            case 2:
+                if (matches(src, start, "AS")) return TokenType.AS;
+                if (matches(src, start, "IF")) return TokenType.IF;
+                if (matches(src, start, "OR")) return TokenType.OR;
+                break;
+            case 3:
+                if (matches(src, start, "GET")) return TokenType.GET;
+                break;
+            case 4:
+                if (matches(src, start, "STOP")) return TokenType.STOP;
+                if (matches(src, start, "THIS")) return TokenType.THIS;
+                if (matches(src, start, "GIVE")) return TokenType.GIVE;
+                if (matches(src, start, "THEN")) return TokenType.THEN;
+                break;
+            case 5:
+                if (matches(src, start, "BEGIN")) return TokenType.BEGIN;
+                break;
+            case 7:
+                if (matches(src, start, "PRESENT")) return TokenType.PRESENT;
+                break;
+            default:
+                break;
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private static boolean matches(char[] src, int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (src[start + i] != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** End of a string literal's contents: before the closing quote, if there is one. */
+    static int stringContentEnd(CharSequence src, int start, int end) {
+        return (end - start >= 2 && src.charAt(end - 1) == '"') ? end - 1 : end;
+    }
+
+    // ----------------------
+    // Memory-mapped source
+    // ----------------------
+
+    /** Decodes a mapped file a window at a time instead of all at once. */
+    private static class MappedSource implements Readable {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private boolean flushed = false;
+
+        MappedSource(ByteBuffer bytes, Charset charset) {
+            this.bytes = bytes;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public int read(CharBuffer target) {
+            if (flushed) return -1;
+            int before = target.position();
+            CoderResult result = decoder.decode(bytes, target, true);
+            if (result.isUnderflow() && !bytes.hasRemaining()) {
+                decoder.flush(target);
+                flushed = true;
+            }
+            int n = target.position() - before;
+            return (n == 0 && flushed) ? -1 : n;
+        }
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Works out which variable slots only ever hold numbers.
+ * <p>
+ * A slot's type is the join of everything that can be stored in it: the
+ * type its THIS ... AS declaration names, the 0 a declaration stores,
+ * arithmetic results and number literals (numbers), other variables (their
+ * own type), and GIVE ... GET (number or string depending on what the user
+ * types, so ANY). Declarations do not convert values at run time, so a
+ * declared type only counts if the assignments agree with it. The result
+ * is iterated until no slot changes.
+ */
+final class TypeInference implements ASTVisitor<Void> {
+    private final ValueType[] types;
+    private boolean changed;
+
+    private TypeInference(int slots) {
+        types = new ValueType[slots];
+        Arrays.fill(types, ValueType.NONE);
+    }
+
+    static ValueType[] infer(Program program) {
+        TypeInference inference = new TypeInference(program.getSlotCount());
+        do {
+            inference.changed = false;
+            program.accept(inference);
+        } while (inference.changed);
+
+        ValueType[] types = inference.types;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == ValueType.NONE) types[i] = ValueType.ANY;
+        }
+        return types;
+    }
+
+    /** Static type of an expression given the slot types. */
+    static ValueType typeOf(Expression node, ValueType[] slots) {
+        if (node instanceof NumberNode || node instanceof BinaryOp) return ValueType.NUMBER;
+        if (node instanceof StringNode) return ValueType.STRING;
+        return slots[((Identifier) node).slot];
+    }
+
+    private void store(int slot, ValueType type) {
+        ValueType joined = types[slot].join(type);
+        if (joined != types[slot]) {
+            types[slot] = joined;
+            changed = true;
+        }
+    }
+
+    private void block(List<Statement> statements) {
+        for (Statement stmt : statements) {
+            stmt.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitProgram(Program node) {
+        block(node.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitVarDeclaration(VarDeclaration node) {
+        store(node.slot, ValueType.declared(node.varType));
+        store(node.slot, ValueType.NUMBER);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(Assignment node) {
+        store(node.slot, typeOf(node.value, types));
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(PrintStmt node) {
+        return null;
+    }
+
+    @Override
+    public Void visitInput(InputStmt node) {
+        store(node.slot, ValueType.ANY);
+        return null;
+    }
+
+    @Override
+    public Void visitIf(IfStmt node) {
+        block(node.thenBlock);
+        if (node.elseBlock != null) block(node.elseBlock);
+        return null;
+    }
+
+    @Override
+    public Void visitCondition(Condition node) {
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryOp(BinaryOp node) {
+        return null;
+    }
+
+    @Override
+    public Void visitNumber(NumberNode node) {
+        return null;
+    }
+
+    @Override
+    public Void visitString(StringNode node) {
+        return null;
+    }
+
+    @Override
+    public Void visitIdentifier(Identifier node) {
+        return null;
+    }
+}
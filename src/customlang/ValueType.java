@@ -0,0 +1,38 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+/** Static type of a variable slot or expression, as worked out by {@link TypeInference}. */
+public enum ValueType {
+    /** Nothing known yet (only seen while inference is running). */
+    NONE,
+    /** Always a number: can be kept as an unboxed double. */
+    NUMBER,
+    /** Always a string. */
+    STRING,
+    /** Mixed or unknown: needs the generic, boxed path. */
+    ANY;
+
+    ValueType join(ValueType other) {
+        if (this == other || other == NONE) return this;
+        if (this == NONE) return other;
+        return ANY;
+    }
+
+    /** The type a THIS ... AS declaration promises, or NONE for an unknown type name. */
+    static ValueType declared(String varType) {
+        switch (varType) {
+            case "NT":
+            case "FT":
+                return NUMBER;
+            case "ST":
+            case "CH":
+                return STRING;
+            default:
+                return NONE;
+        }
+    }
+}
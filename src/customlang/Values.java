@@ -0,0 +1,102 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+/**
+ * Value conventions shared by every execution backend, so they all print
+ * and convert exactly like {@link Interpreter}. Runtime values are
+ * {@code Integer}, {@code Double} or {@code String}.
+ */
+public final class Values {
+
+    private Values() {
+    }
+
+    /** Result of arithmetic: integral results become Integer, like the interpreter always did. */
+    public static Object box(double result) {
+        if (result == (int) result) {
+            return (int) result;
+        }
+        return result;
+    }
+
+    public static double toNumber(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Cannot convert to number: " + value);
+            }
+        }
+        throw new RuntimeException("Cannot convert to number: " + value);
+    }
+
+    /** What PRESENT shows for a value: whole doubles print without ".0". */
+    public static String format(Object value) {
+        if (value instanceof Double && ((Double) value) % 1 == 0) {
+            value = ((Double) value).intValue();
+        }
+        return value.toString();
+    }
+
+    /** {@link #format(Object)} for an unboxed number. */
+    public static String formatNumber(double value) {
+        if (value % 1 == 0) {
+            return Integer.toString((int) value);
+        }
+        return Double.toString(value);
+    }
+
+    /** {@link #formatNumber(double)} written into {@code out}, without building a String. */
+    public static StringBuilder appendNumber(StringBuilder out, double value) {
+        if (value % 1 == 0) {
+            return out.append((int) value);
+        }
+        return out.append(value);
+    }
+
+    /** {@link #format(Object)} written into {@code out}. */
+    public static StringBuilder appendValue(StringBuilder out, Object value) {
+        if (value instanceof Number) {
+            return appendNumber(out, ((Number) value).doubleValue());
+        }
+        return out.append(value);
+    }
+
+    /** What GIVE ... GET stores: a Double if the input is numeric, else the text. */
+    public static Object fromInput(String input) {
+        try {
+            return Double.parseDouble(input);
+        } catch (NumberFormatException e) {
+            return input;
+        }
+    }
+
+    public static double arithmetic(String operator, double left, double right) {
+        switch (operator) {
+            case "+": return left + right;
+            case "-": return left - right;
+            case "*": return left * right;
+            case "/": return left / right;
+            default: throw new RuntimeException("Unknown operator: " + operator);
+        }
+    }
+
+    public static boolean compare(String operator, double left, double right) {
+        switch (operator) {
+            case "==": return left == right;
+            case "!=": return left != right;
+            case ">": return left > right;
+            case "<": return left < right;
+            case ">=": return left >= right;
+            case "<=": return left <= right;
+            default: throw new RuntimeException("Unknown condition operator: " + operator);
+        }
+    }
+}
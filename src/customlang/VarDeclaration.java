@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+
+/** THIS name AS varType */
+public final class VarDeclaration extends Statement {
+    final String name;
+    final String varType;
+    final int slot;
+
+    public VarDeclaration(String name, String varType, int slot) {
+        this.name = name;
+        this.varType = varType;
+        this.slot = slot;
+    }
+
+    @Override
+    public <R> R accept(ASTVisitor<R> visitor) {
+        return visitor.visitVarDeclaration(this);
+    }
+}
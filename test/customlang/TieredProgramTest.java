@@ -0,0 +1,58 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package customlang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Promotion to a generated JVM class, for programs whose strings hold
+ * chars that need escaping in Java source.
+ */
+public class TieredProgramTest {
+    private static final String SOURCE = "BEGIN\n"
+            + "PRESENT \"one\ntwo\r\tthree\u0001é\"\n"
+            + "GIVE \"first\nsecond\" GET answer\n"
+            + "PRESENT answer\n"
+            + "STOP";
+
+    private Program program;
+
+    @Before
+    public void parse() {
+        assumeTrue("needs a JDK", JvmCompiler.isAvailable());
+        program = new Parser(new Tokenizer(SOURCE)).parse();
+    }
+
+    @Test
+    public void compilesMultiLineStrings() {
+        assertEquals(run(ClosureCompiler.compile(program)), run(JvmCompiler.compile(program)));
+    }
+
+    @Test
+    public void promotesMultiLineStrings() throws InterruptedException {
+        TieredProgram tiered = new TieredProgram(program, 1);
+        String expected = run(tiered);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!tiered.isPromoted() && tiered.failure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNull(tiered.failure());
+        assertTrue(tiered.isPromoted());
+        assertEquals(expected, run(tiered));
+    }
+
+    private static String run(CompiledProgram compiled) {
+        StringBuilder out = new StringBuilder();
+        compiled.run(new AppendableIO(out, prompt -> "[" + prompt + "]"));
+        return out.toString();
+    }
+}